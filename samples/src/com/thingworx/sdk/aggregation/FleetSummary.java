@@ -0,0 +1,83 @@
+package com.thingworx.sdk.aggregation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the per-thing window summaries of a fleet into one summary per property and window.
+ * Things merge their summary once per window, so the lock taken here is not on the per-reading path.
+ * A fleet window is logged, and becomes available from {@link #getLatest(String)}, once a thing merges
+ * a summary for a later window.
+ */
+public class FleetSummary {
+	private static final Logger LOG = LoggerFactory.getLogger(FleetSummary.class);
+
+	private final Map<String, Window> windows = new HashMap<String, Window>();
+	private final Map<String, Summary> latest = new HashMap<String, Summary>();
+
+	/**
+	 * @param property The name of the summarized property.
+	 * @param start The start of the thing's window.
+	 * @param end The end of the thing's window.
+	 * @param summary The thing's summary for the window.
+	 */
+	public synchronized void merge(String property, long start, long end, Summary summary) {
+		Window window = windows.get(property);
+		if (window == null) {
+			window = new Window(summary.newEmpty());
+			windows.put(property, window);
+		} else if (end > window.end && window.summary.getCount() > 0) {
+			report(property, window);
+		}
+
+		if (end >= window.end) {
+			if (end > window.end) {
+				window.summary.reset();
+				window.start = start;
+				window.end = end;
+			}
+			window.summary.merge(summary);
+		}
+		// Summaries of an already reported window arrive too late and are dropped
+	}
+
+	/**
+	 * @param property The name of the summarized property.
+	 * @return A copy of the last reported fleet summary of the property, or null if none was reported yet.
+	 */
+	public synchronized Summary getLatest(String property) {
+		Summary summary = latest.get(property);
+		if (summary == null) {
+			return null;
+		}
+		Summary copy = summary.newEmpty();
+		copy.merge(summary);
+		return copy;
+	}
+
+	private void report(String property, Window window) {
+		Summary snapshot = latest.get(property);
+		if (snapshot == null) {
+			snapshot = window.summary.newEmpty();
+			latest.put(property, snapshot);
+		}
+		snapshot.reset();
+		snapshot.merge(window.summary);
+
+		LOG.info("Fleet {} [{} - {}]: count={} min={} max={} avg={} p95={}", property, window.start, window.end,
+				snapshot.getCount(), snapshot.getMin(), snapshot.getMax(), snapshot.getAverage(), snapshot.getPercentile(0.95d));
+	}
+
+	private static class Window {
+		final Summary summary;
+		long start;
+		long end;
+
+		Window(Summary summary) {
+			this.summary = summary;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.thingworx.sdk.aggregation;
+
+/**
+ * An incremental, fixed-size summary of a stream of readings: count, sum, min, max and an approximate
+ * percentile sketch. The sketch is a histogram of equal-width buckets over a declared range; readings
+ * outside the range are counted in the first or last bucket. Adding a reading never allocates.
+ */
+public class Summary {
+	private final double low;
+	private final double high;
+	private final double bucketWidth;
+	private final long[] buckets;
+
+	private long count;
+	private double sum;
+	private double min;
+	private double max;
+
+	/**
+	 * @param low The lowest expected reading.
+	 * @param high The highest expected reading.
+	 * @param bucketCount The number of histogram buckets, the percentile error is (high - low) / bucketCount.
+	 */
+	public Summary(double low, double high, int bucketCount) {
+		this.low = low;
+		this.high = high;
+		this.bucketWidth = (high - low) / bucketCount;
+		this.buckets = new long[bucketCount];
+		reset();
+	}
+
+	public void add(double value) {
+		count++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+
+		int bucket = (int) ((value - low) / bucketWidth);
+		if (bucket < 0) {
+			bucket = 0;
+		} else if (bucket >= buckets.length) {
+			bucket = buckets.length - 1;
+		}
+		buckets[bucket]++;
+	}
+
+	/**
+	 * Adds the readings of another summary with the same range and bucket count.
+	 *
+	 * @param other The summary to merge into this one.
+	 */
+	public void merge(Summary other) {
+		if (other.buckets.length != buckets.length || other.low != low || other.high != high) {
+			throw new IllegalArgumentException("Only summaries with the same range and bucket count can be merged");
+		}
+		if (other.count == 0) {
+			return;
+		}
+
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		for (int index = 0; index < buckets.length; index++) {
+			buckets[index] += other.buckets[index];
+		}
+	}
+
+	public void reset() {
+		count = 0;
+		sum = 0d;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+		for (int index = 0; index < buckets.length; index++) {
+			buckets[index] = 0;
+		}
+	}
+
+	/**
+	 * @param quantile The quantile, between 0 and 1, for example 0.95 for the 95th percentile.
+	 * @return The approximate value at the quantile, the middle of its bucket clamped to [min, max], or NaN if empty.
+	 */
+	public double getPercentile(double quantile) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+
+		long rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+		for (int index = 0; index < buckets.length; index++) {
+			seen += buckets[index];
+			if (seen >= rank && buckets[index] > 0) {
+				double value = low + (index + 0.5d) * bucketWidth;
+				return Math.max(min, Math.min(max, value));
+			}
+		}
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return The smallest reading, or NaN if empty.
+	 */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/**
+	 * @return The largest reading, or NaN if empty.
+	 */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/**
+	 * @return The mean of the readings, or NaN if empty.
+	 */
+	public double getAverage() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * @return An empty summary with the same range and bucket count.
+	 */
+	public Summary newEmpty() {
+		return new Summary(low, high, buckets.length);
+	}
+}
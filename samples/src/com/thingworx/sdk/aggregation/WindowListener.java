@@ -0,0 +1,13 @@
+package com.thingworx.sdk.aggregation;
+
+/**
+ * Receives the windows reported by a {@link WindowedAggregator}.
+ */
+public interface WindowListener {
+	/**
+	 * @param start The start of the window, in milliseconds since the epoch.
+	 * @param end The end of the window (exclusive), in milliseconds since the epoch.
+	 * @param summary The summary of the readings in the window. It is reused by the aggregator and must not be kept.
+	 */
+	void windowClosed(long start, long end, Summary summary);
+}
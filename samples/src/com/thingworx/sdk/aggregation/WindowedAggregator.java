@@ -0,0 +1,86 @@
+package com.thingworx.sdk.aggregation;
+
+/**
+ * Aggregates a stream of timestamped readings into tumbling or sliding windows.
+ *
+ * Time is cut into panes of one slide each; a window covers the last window/slide panes. A tumbling
+ * window is a sliding window whose slide equals its length. Each pane keeps a fixed-size
+ * {@link Summary}, so the state of an aggregator never grows with the number of readings. A window is
+ * reported when the first reading, or {@link #advance(long, WindowListener)} call, after its end arrives.
+ *
+ * An aggregator is not thread safe; each thing owns its own aggregators.
+ */
+public class WindowedAggregator {
+	private final long slideMillis;
+	private final Summary[] panes;
+	private final Summary window;
+
+	// Start of the pane readings are currently added to, -1 before the first reading
+	private long paneStart = -1;
+	private int paneIndex;
+
+	/**
+	 * @param windowMillis The length of a window, a multiple of slideMillis.
+	 * @param slideMillis How often a window is reported; equal to windowMillis for tumbling windows.
+	 * @param prototype An empty summary whose range and bucket count are used for every pane.
+	 */
+	public WindowedAggregator(long windowMillis, long slideMillis, Summary prototype) {
+		if (slideMillis <= 0 || windowMillis < slideMillis || windowMillis % slideMillis != 0) {
+			throw new IllegalArgumentException("The window length must be a positive multiple of the slide");
+		}
+
+		this.slideMillis = slideMillis;
+		this.panes = new Summary[(int) (windowMillis / slideMillis)];
+		for (int index = 0; index < panes.length; index++) {
+			panes[index] = prototype.newEmpty();
+		}
+		this.window = prototype.newEmpty();
+	}
+
+	/**
+	 * Adds a reading, first reporting the windows that ended before it.
+	 *
+	 * @param value The reading.
+	 * @param time The time of the reading, in milliseconds since the epoch. Readings must arrive in time order.
+	 * @param listener Receives the windows that closed.
+	 */
+	public void add(double value, long time, WindowListener listener) {
+		advance(time, listener);
+		panes[paneIndex].add(value);
+	}
+
+	/**
+	 * Reports the windows that ended before the given time, without adding a reading. Call it from the
+	 * scan so that windows are reported even when no reading arrives.
+	 *
+	 * @param time The current time, in milliseconds since the epoch.
+	 * @param listener Receives the windows that closed.
+	 */
+	public void advance(long time, WindowListener listener) {
+		long start = time - (time % slideMillis);
+		if (paneStart < 0) {
+			paneStart = start;
+			return;
+		}
+
+		// After a long gap every pane is empty, there is nothing more to report
+		int steps = 0;
+		while (paneStart < start && steps <= panes.length) {
+			long windowEnd = paneStart + slideMillis;
+
+			window.reset();
+			for (Summary pane : panes) {
+				window.merge(pane);
+			}
+			if (window.getCount() > 0) {
+				listener.windowClosed(windowEnd - slideMillis * panes.length, windowEnd, window);
+			}
+
+			paneIndex = (paneIndex + 1) % panes.length;
+			panes[paneIndex].reset();
+			paneStart = windowEnd;
+			steps++;
+		}
+		paneStart = start;
+	}
+}
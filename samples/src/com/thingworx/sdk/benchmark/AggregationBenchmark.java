@@ -0,0 +1,65 @@
+package com.thingworx.sdk.benchmark;
+
+import java.util.SplittableRandom;
+
+import com.thingworx.sdk.aggregation.Summary;
+import com.thingworx.sdk.aggregation.WindowListener;
+import com.thingworx.sdk.aggregation.WindowedAggregator;
+
+/**
+ * Measures the cost of aggregating one Speed reading into per-minute windows, for a tumbling window
+ * and for a one minute window sliding every 10 seconds. Each truck reads its speed every second,
+ * like the DeliveryTruckClient scan loop.
+ *
+ * Usage: AggregationBenchmark [trucks] [readingsPerTruck]
+ */
+public class AggregationBenchmark {
+	private static long windows;
+	private static double checksum;
+
+	public static void main(String[] args) {
+		int trucks = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int readings = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+		WindowListener listener = new WindowListener() {
+			@Override
+			public void windowClosed(long start, long end, Summary summary) {
+				windows++;
+				checksum += summary.getAverage() + summary.getPercentile(0.95d);
+			}
+		};
+
+		for (int pass = 0; pass < 2; pass++) {
+			run("tumbling 60s", trucks, readings, 60000L, 60000L, listener, pass == 1);
+			run("sliding 60s/10s", trucks, readings, 60000L, 10000L, listener, pass == 1);
+		}
+	}
+
+	private static void run(String name, int trucks, int readings, long window, long slide, WindowListener listener, boolean report) {
+		WindowedAggregator[] aggregators = new WindowedAggregator[trucks];
+		for (int t = 0; t < trucks; t++) {
+			aggregators[t] = new WindowedAggregator(window, slide, new Summary(0d, 240d, 120));
+		}
+
+		SplittableRandom random = new SplittableRandom(7L);
+		double[] speeds = new double[4096];
+		for (int i = 0; i < speeds.length; i++) {
+			speeds[i] = 220 * random.nextDouble();
+		}
+
+		windows = 0;
+		long begin = System.nanoTime();
+		for (int r = 0; r < readings; r++) {
+			long time = r * 1000L;
+			for (int t = 0; t < trucks; t++) {
+				aggregators[t].add(speeds[(r + t) & (speeds.length - 1)], time, listener);
+			}
+		}
+		long elapsed = System.nanoTime() - begin;
+
+		if (report) {
+			System.out.printf("%-16s %.1f ns/reading, %d windows reported, %.0f bytes of histogram per truck%n", name,
+					(double) elapsed / ((long) trucks * readings), windows, (window / slide + 1) * 120 * 8d);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.thingworx.sdk.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.thingworx.communications.client.ClientConfigurator;
+import com.thingworx.communications.client.ConnectedThingClient;
+import com.thingworx.communications.client.things.VirtualThing;
+import com.thingworx.sdk.common.ExecutorFactory;
+import com.thingworx.sdk.entities.BindListener;
+import com.thingworx.sdk.entities.BulkBinder;
+import com.thingworx.sdk.entities.ThingEntry;
+import com.thingworx.sdk.entities.ThingFactory;
+
+/**
+ * Measures the time until a whole fleet is bound, creating and binding each thing in turn as the
+ * trucks used to be, against a BulkBinder constructing them in parallel and binding them in batches.
+ * Stand-ins take the place of the SDK: constructing a thing costs a fixed amount of CPU, for annotation
+ * processing and shape definitions, and every bind call waits one round trip to the server, plus a
+ * little CPU per thing registered.
+ *
+ * The time until the first things are bound, and could be scanned, is reported as well.
+ *
+ * Usage: BulkBindBenchmark [constructMicros] [roundTripMicros] [batchSize] [counts...]
+ */
+public class BulkBindBenchmark {
+	private static volatile long sink;
+
+	public static void main(String[] args) throws Exception {
+		final long constructNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 0 ? Long.parseLong(args[0]) : 50L);
+		long roundTripNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 200L);
+		int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		int[] counts = { 1000, 10000, 50000 };
+		if (args.length > 3) {
+			counts = new int[args.length - 3];
+			for (int i = 3; i < args.length; i++) {
+				counts[i - 3] = Integer.parseInt(args[i]);
+			}
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		ThingFactory factory = new ThingFactory() {
+			@Override
+			public VirtualThing create(ThingEntry entry, ConnectedThingClient client) throws Exception {
+				return new StandInThing(entry.getName(), client, constructNanos);
+			}
+		};
+
+		for (int count : counts) {
+			List<ThingEntry> entries = new ArrayList<ThingEntry>(count);
+			for (int i = 0; i < count; i++) {
+				entries.add(new ThingEntry("DeliveryTruck_" + (i + 1), "Delivery truck", "DeliveryTruck", null, true, new String[0],
+						new String[0], new String[] { "DeliveryStop" }));
+			}
+
+			StandInClient serialClient = new StandInClient(roundTripNanos);
+			long begin = System.nanoTime();
+			long firstBound = 0;
+			for (ThingEntry entry : entries) {
+				serialClient.bindThing(factory.create(entry, serialClient));
+				if (firstBound == 0) {
+					firstBound = System.nanoTime() - begin;
+				}
+			}
+			report(count, "serial", System.nanoTime() - begin, firstBound, serialClient);
+
+			bulk(count, "bulk", new BulkBinder(ExecutorFactory.platformThreads(), threads, batchSize), factory, entries, roundTripNanos);
+			bulk(count, "bulk-virtual", new BulkBinder(ExecutorFactory.virtualThreads(), threads, batchSize), factory, entries,
+					roundTripNanos);
+		}
+	}
+
+	private static void bulk(int count, String label, BulkBinder binder, ThingFactory factory, List<ThingEntry> entries,
+			long roundTripNanos) throws Exception {
+		StandInClient client = new StandInClient(roundTripNanos);
+		final long begin = System.nanoTime();
+		final long[] firstBound = new long[1];
+		binder.bind(client, factory, entries, new BindListener() {
+			@Override
+			public void batchBound(List<VirtualThing> batch, int bound, int failed, int total) {
+				if (firstBound[0] == 0) {
+					firstBound[0] = System.nanoTime() - begin;
+				}
+			}
+		});
+		report(count, label, System.nanoTime() - begin, firstBound[0], client);
+	}
+
+	private static void report(int count, String label, long nanos, long firstBoundNanos, StandInClient client) {
+		System.out.printf("%6d things %-13s all bound %8.1f ms, first bound %6.1f ms, %6d bind calls%n", count, label,
+				nanos / 1e6d, firstBoundNanos / 1e6d, client.calls);
+	}
+
+	private static void spin(long nanos) {
+		long end = System.nanoTime() + nanos;
+		long spins = 0;
+		while (System.nanoTime() < end) {
+			spins++;
+		}
+		sink += spins;
+	}
+
+	// Construction costs CPU, as processing the annotations and defining the shapes does
+	private static class StandInThing extends VirtualThing {
+		private static final long serialVersionUID = 1L;
+
+		StandInThing(String name, ConnectedThingClient client, long constructNanos) {
+			super(name, "Stand-in thing", client);
+			spin(constructNanos);
+		}
+	}
+
+	// Every bind call waits a round trip to the server, and registering each thing costs a little CPU
+	private static class StandInClient extends ConnectedThingClient {
+		private final static long REGISTER_NANOS = 2000L;
+		private final long roundTripNanos;
+		int calls;
+
+		StandInClient(long roundTripNanos) throws Exception {
+			super(new ClientConfigurator());
+			this.roundTripNanos = roundTripNanos;
+		}
+
+		@Override
+		public void bindThing(VirtualThing thing) {
+			calls++;
+			spin(REGISTER_NANOS);
+			LockSupport.parkNanos(roundTripNanos);
+		}
+
+		@Override
+		public void bindThings(List<VirtualThing> things) {
+			calls++;
+			spin(REGISTER_NANOS * things.size());
+			LockSupport.parkNanos(roundTripNanos);
+		}
+	}
+}
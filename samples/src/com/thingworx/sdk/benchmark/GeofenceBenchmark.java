@@ -0,0 +1,83 @@
+package com.thingworx.sdk.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.thingworx.sdk.geofence.CircleGeofence;
+import com.thingworx.sdk.geofence.Geofence;
+import com.thingworx.sdk.geofence.GeofenceIndex;
+import com.thingworx.sdk.geofence.GeofenceListener;
+import com.thingworx.sdk.geofence.GeofenceTracker;
+import com.thingworx.sdk.geofence.GeofenceTransition;
+import com.thingworx.sdk.geofence.PolygonGeofence;
+
+/**
+ * Measures geofence lookups per second on a single thread. Zones, half circles and half polygons, are
+ * scattered over the area the DeliveryTruckThing simulation drives in, and every truck moves a short
+ * random step per update so that it regularly enters and leaves zones.
+ *
+ * Usage: GeofenceBenchmark [zones] [trucks] [updates]
+ */
+public class GeofenceBenchmark {
+	private static long transitions;
+
+	public static void main(String[] args) {
+		int zones = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int trucks = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		long updates = args.length > 2 ? Long.parseLong(args[2]) : 5000000L;
+
+		SplittableRandom random = new SplittableRandom(42L);
+		List<Geofence> fences = new ArrayList<Geofence>();
+		for (int i = 0; i < zones; i++) {
+			double latitude = 40 + 45 * random.nextDouble();
+			double longitude = -150 + 80 * random.nextDouble();
+			if (i % 2 == 0) {
+				fences.add(new CircleGeofence("Zone_" + i, latitude, longitude, 2000 + 8000 * random.nextDouble()));
+			} else {
+				double size = 0.02 + 0.1 * random.nextDouble();
+				fences.add(new PolygonGeofence("Zone_" + i,
+						new double[] { latitude, latitude + size, latitude + size, latitude - size / 2 },
+						new double[] { longitude, longitude, longitude + size, longitude + size / 2 }));
+			}
+		}
+
+		long begin = System.nanoTime();
+		GeofenceIndex index = new GeofenceIndex(fences, 0.1d);
+		System.out.printf("indexed %d zones in %.1f ms%n", index.size(), (System.nanoTime() - begin) / 1000000d);
+
+		// Start every truck inside a zone so that transitions actually happen
+		GeofenceTracker[] trackers = new GeofenceTracker[trucks];
+		double[] latitudes = new double[trucks];
+		double[] longitudes = new double[trucks];
+		for (int t = 0; t < trucks; t++) {
+			trackers[t] = new GeofenceTracker(index, 60000L);
+			Geofence start = fences.get(random.nextInt(fences.size()));
+			latitudes[t] = (start.getMinLatitude() + start.getMaxLatitude()) / 2;
+			longitudes[t] = (start.getMinLongitude() + start.getMaxLongitude()) / 2;
+		}
+
+		GeofenceListener listener = new GeofenceListener() {
+			@Override
+			public void onTransition(Geofence fence, GeofenceTransition transition, double latitude, double longitude, long time) {
+				transitions++;
+			}
+		};
+
+		for (int pass = 0; pass < 2; pass++) {
+			transitions = 0;
+			long time = 0;
+			begin = System.nanoTime();
+			for (long u = 0; u < updates; u++) {
+				int t = (int) (u % trucks);
+				latitudes[t] += (random.nextDouble() - 0.5) * 0.01;
+				longitudes[t] += (random.nextDouble() - 0.5) * 0.01;
+				time += 10;
+				trackers[t].update(latitudes[t], longitudes[t], time, listener);
+			}
+			long elapsed = System.nanoTime() - begin;
+			System.out.printf("%s: %.0f k updates/s, %d transitions%n", pass == 0 ? "warm-up" : "measured",
+					updates / (elapsed / 1000000000d) / 1000d, transitions);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.thingworx.sdk.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.thingworx.metadata.DataShapeDefinition;
+import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.metadata.collections.FieldDefinitionCollection;
+import com.thingworx.sdk.common.InfoTableDeltaTracker;
+import com.thingworx.types.BaseTypes;
+import com.thingworx.types.InfoTable;
+import com.thingworx.types.collections.ValueCollection;
+
+/**
+ * Compares the bytes sent per update of a StringMap lookup table when the whole table replaces the
+ * property, with the rows upserted and deleted that an InfoTableDeltaTracker sends. Each update changes
+ * a few rows: most change their Value, some are inserted and some deleted.
+ *
+ * Bytes are counted with a plain encoding, four bytes per ID and a length prefixed UTF-8 string per
+ * Value, the same for both, so the ratio holds whatever the framing of the actual messages.
+ *
+ * Usage: InfoTableDeltaBenchmark [rows] [updates] [changesPerUpdate] [snapshotMillis]
+ */
+public class InfoTableDeltaBenchmark {
+
+	public static void main(String[] args) {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int updates = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int changes = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		long snapshotMillis = args.length > 3 ? Long.parseLong(args[3]) : 60000L;
+
+		FieldDefinitionCollection fields = new FieldDefinitionCollection();
+		fields.addFieldDefinition(new FieldDefinition("ID", BaseTypes.INTEGER));
+		fields.addFieldDefinition(new FieldDefinition("Value", BaseTypes.STRING));
+		DataShapeDefinition shape = new DataShapeDefinition(fields);
+
+		Random random = new Random(42L);
+		List<ValueCollection> current = new ArrayList<ValueCollection>(rows);
+		int nextId = 0;
+		for (; nextId < rows; nextId++) {
+			current.add(row(nextId, "value-" + nextId));
+		}
+
+		InfoTableDeltaTracker tracker = new InfoTableDeltaTracker("ID", snapshotMillis, 0.5d);
+		long fullBytes = 0;
+		long deltaBytes = 0;
+		long diffNanos = 0;
+		for (int update = 0; update < updates; update++) {
+			for (int c = 0; c < changes; c++) {
+				int kind = random.nextInt(10);
+				if (kind == 0) {
+					current.add(row(nextId, "value-" + nextId));
+					nextId++;
+				} else if (kind == 1 && current.size() > 1) {
+					current.remove(random.nextInt(current.size()));
+				} else {
+					// Rows are replaced, not modified, as the tracker compares them with what it sent
+					int index = random.nextInt(current.size());
+					Integer id = (Integer) current.get(index).getValue("ID");
+					current.set(index, row(id, "value-" + id + "-" + update));
+				}
+			}
+
+			InfoTable table = new InfoTable(shape);
+			for (ValueCollection row : current) {
+				table.addRow(row);
+			}
+			fullBytes += size(table);
+
+			long start = System.nanoTime();
+			InfoTableDeltaTracker.Change change = tracker.update(table);
+			diffNanos += System.nanoTime() - start;
+			if (change.isSnapshot()) {
+				deltaBytes += size(table) + 9;
+			} else if (!change.isEmpty()) {
+				deltaBytes += size(change.getUpserted()) + size(change.getDeleted()) + 9;
+			}
+		}
+
+		System.out.printf("rows=%d updates=%d changes/update=%d%n", rows, updates, changes);
+		System.out.printf("full replacement %10.1f KB/update%n", fullBytes / 1024d / updates);
+		System.out.printf("row deltas       %10.3f KB/update (%.1fx less), snapshots=%d deltas=%d rows sent=%d%n",
+				deltaBytes / 1024d / updates, (double) fullBytes / deltaBytes, tracker.getSnapshots(), tracker.getDeltas(),
+				tracker.getChangedRows());
+		System.out.printf("diff             %10.2f ms/update%n", diffNanos / 1e6d / updates);
+	}
+
+	private static ValueCollection row(int id, String value) {
+		ValueCollection row = new ValueCollection();
+		row.SetIntegerValue("ID", id);
+		row.SetStringValue("Value", value);
+		return row;
+	}
+
+	private static long size(InfoTable table) {
+		long bytes = 0;
+		for (ValueCollection row : table.getRows()) {
+			bytes += 4;
+			Object value = row.getValue("Value");
+			if (value != null) {
+				bytes += 2 + ((String) value).getBytes(StandardCharsets.UTF_8).length;
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,101 @@
+package com.thingworx.sdk.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import org.joda.time.DateTime;
+
+import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.metadata.collections.FieldDefinitionCollection;
+import com.thingworx.sdk.common.PayloadRecord;
+import com.thingworx.sdk.common.PayloadSchema;
+import com.thingworx.types.BaseTypes;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.DatetimePrimitive;
+import com.thingworx.types.primitives.structs.Location;
+
+/**
+ * Compares building a DeliveryStop payload the way scanDevice used to, six string-keyed SetXxxValue
+ * calls into a new ValueCollection, with writing it into a pooled PayloadRecord by ordinal. The record
+ * is measured twice: the part that runs on the scan thread, and that part plus the conversion to a
+ * ValueCollection that an outbound pipeline sender thread does when the event is pushed.
+ *
+ * Allocations are read from the HotSpot per-thread allocation counter.
+ *
+ * Usage: PayloadBuilderBenchmark [payloads] [rounds]
+ */
+public class PayloadBuilderBenchmark {
+	private static long sink;
+
+	public static void main(String[] args) {
+		int payloads = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		FieldDefinitionCollection fields = new FieldDefinitionCollection();
+		fields.addFieldDefinition(new FieldDefinition("ActivationTime", BaseTypes.DATETIME));
+		fields.addFieldDefinition(new FieldDefinition("DriverName", BaseTypes.STRING));
+		fields.addFieldDefinition(new FieldDefinition("Truck", BaseTypes.STRING));
+		fields.addFieldDefinition(new FieldDefinition("TotalDeliveries", BaseTypes.NUMBER));
+		fields.addFieldDefinition(new FieldDefinition("RemainingDeliveries", BaseTypes.NUMBER));
+		fields.addFieldDefinition(new FieldDefinition("Location", BaseTypes.LOCATION));
+		PayloadSchema schema = PayloadSchema.of("DeliveryTruckShape", fields);
+
+		Location location = new Location(40.84d, -73.86d);
+		DateTime now = DateTime.now();
+
+		for (int round = 0; round < rounds; round++) {
+			long allocated = allocatedBytes();
+			long begin = System.nanoTime();
+			for (int i = 0; i < payloads; i++) {
+				ValueCollection payload = new ValueCollection();
+				payload.SetLocationValue("Location", location);
+				payload.SetNumberValue("RemainingDeliveries", 500d - (i & 511));
+				payload.SetDateTimeValue("ActivationTime", new DatetimePrimitive(now));
+				payload.SetNumberValue("TotalDeliveries", 500d);
+				payload.SetStringValue("DriverName", "Megan");
+				payload.SetStringValue("Truck", "DeliveryTruck_1");
+				sink += payload.size();
+			}
+			report("ValueCollection", payloads, begin, allocated);
+
+			PayloadSchema.DateTimeField time = schema.dateTimeField("ActivationTime");
+			PayloadSchema.StringField driver = schema.stringField("DriverName");
+			PayloadSchema.StringField truck = schema.stringField("Truck");
+			PayloadSchema.NumberField total = schema.numberField("TotalDeliveries");
+			PayloadSchema.NumberField remaining = schema.numberField("RemainingDeliveries");
+			PayloadSchema.LocationField position = schema.locationField("Location");
+
+			allocated = allocatedBytes();
+			begin = System.nanoTime();
+			for (int i = 0; i < payloads; i++) {
+				PayloadRecord payload = schema.acquire();
+				payload.set(position, location).set(remaining, 500d - (i & 511)).set(time, now)
+						.set(total, 500d).set(driver, "Megan").set(truck, "DeliveryTruck_1");
+				sink += payload.getSchema().size();
+				payload.release();
+			}
+			report("record (scan)", payloads, begin, allocated);
+
+			allocated = allocatedBytes();
+			begin = System.nanoTime();
+			for (int i = 0; i < payloads; i++) {
+				PayloadRecord payload = schema.acquire();
+				payload.set(position, location).set(remaining, 500d - (i & 511)).set(time, now)
+						.set(total, 500d).set(driver, "Megan").set(truck, "DeliveryTruck_1");
+				sink += payload.toValueCollection().size();
+				payload.release();
+			}
+			report("record (push)", payloads, begin, allocated);
+		}
+		System.out.println("(" + sink + ")");
+	}
+
+	private static void report(String label, int payloads, long begin, long allocated) {
+		double seconds = (System.nanoTime() - begin) / 1e9d;
+		System.out.printf("%-16s %,12.0f ops/s %8.1f bytes/op%n", label, payloads / seconds,
+				(double) (allocatedBytes() - allocated) / payloads);
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,178 @@
+package com.thingworx.sdk.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.joda.time.DateTime;
+
+import com.thingworx.communications.client.things.VirtualThing;
+import com.thingworx.sdk.common.OutboundPipeline;
+import com.thingworx.sdk.common.OutboundQueue;
+import com.thingworx.sdk.common.OverflowPolicy;
+import com.thingworx.sdk.common.PriorityClass;
+import com.thingworx.sdk.common.PriorityClasses;
+import com.thingworx.sdk.common.PriorityScheduler;
+import com.thingworx.types.collections.ValueCollection;
+
+/**
+ * Measures the latency of critical events on a saturated link, with and without priority lanes. Sender
+ * threads stand in for the outbound pipeline; every push holds its sender for the time the link takes
+ * to carry it. Bulk telemetry is offered faster than the link can carry it, while DeliveryStop-like
+ * critical events and regular updates arrive at a low, steady rate.
+ *
+ * Without lanes every push waits in one FIFO queue behind the growing bulk backlog; with lanes the
+ * critical pushes should keep a flat p99 however large the backlog gets.
+ *
+ * A second pass drives the same load through the OutboundQueues of stand-in things, so the critical
+ * events share each thing's flush with its Speed readings: every flush pushes all the lanes of its thing
+ * in one round trip, which costs the link time of the bulk values it carries.
+ *
+ * Usage: PriorityLaneBenchmark [seconds] [senders] [bulkPushMillis] [bulkPerSecond] [things]
+ */
+public class PriorityLaneBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int senders = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		long bulkPushMillis = args.length > 2 ? Long.parseLong(args[2]) : 5L;
+		int bulkPerSecond = args.length > 3 ? Integer.parseInt(args[3]) : 600;
+		int things = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+		System.out.printf("link capacity %d bulk pushes/s, offered %d/s%n", senders * 1000 / bulkPushMillis, bulkPerSecond);
+		run("fifo", false, seconds, senders, bulkPushMillis, bulkPerSecond);
+		run("lanes", true, seconds, senders, bulkPushMillis, bulkPerSecond);
+
+		System.out.printf("through the outbound queues of %d things%n", things);
+		runQueues("fifo", false, seconds, senders, bulkPushMillis, bulkPerSecond, things);
+		runQueues("lanes", true, seconds, senders, bulkPushMillis, bulkPerSecond, things);
+	}
+
+	private static void runQueues(String label, boolean lanes, int seconds, int senders, long bulkPushMillis, int bulkPerSecond,
+			int things) throws Exception {
+		OutboundPipeline pipeline = new OutboundPipeline(senders, 1000);
+		PriorityClasses priorities = new PriorityClasses();
+		if (lanes) {
+			priorities.declareEvent("DeliveryStop", PriorityClass.CRITICAL).declareProperty("Speed", PriorityClass.BULK);
+		}
+		List<OutboundQueue> queues = new ArrayList<OutboundQueue>();
+		for (int thing = 0; thing < things; thing++) {
+			queues.add(pipeline.register(new StandInThing("Truck" + thing, TimeUnit.MILLISECONDS.toNanos(bulkPushMillis)), 100,
+					OverflowPolicy.DROP_OLDEST, priorities));
+		}
+
+		long bulkInterval = TimeUnit.SECONDS.toNanos(1) / bulkPerSecond;
+		long criticalInterval = TimeUnit.MILLISECONDS.toNanos(20);
+		long begin = System.nanoTime();
+		long end = begin + TimeUnit.SECONDS.toNanos(seconds);
+		long nextBulk = begin;
+		long nextCritical = begin;
+		int bulkThing = 0;
+		int criticalThing = 0;
+		long now;
+		while ((now = System.nanoTime()) < end) {
+			if (now >= nextBulk) {
+				OutboundQueue queue = queues.get(bulkThing++ % things);
+				queue.setProperty("Speed", 60d);
+				queue.commit();
+				nextBulk += bulkInterval;
+			}
+			if (now >= nextCritical) {
+				OutboundQueue queue = queues.get(criticalThing++ % things);
+				queue.queueEvent("DeliveryStop", new DateTime(), new ValueCollection());
+				queue.commit();
+				nextCritical += criticalInterval;
+			}
+			LockSupport.parkNanos(Math.max(0L, Math.min(nextBulk, nextCritical) - System.nanoTime()));
+		}
+		int backlog = pipeline.getScheduledFlushes();
+		pipeline.shutdown();
+
+		System.out.printf("%-6s flushes waiting=%d%n", label, backlog);
+		for (PriorityClass priority : PriorityClass.values()) {
+			if (pipeline.getFlushLatency(priority).getCount() > 0) {
+				System.out.printf("  %-8s %s%n", priority, pipeline.getFlushLatency(priority));
+			}
+		}
+	}
+
+	private static void run(String label, boolean lanes, int seconds, int senders, long bulkPushMillis, int bulkPerSecond)
+			throws Exception {
+		PriorityScheduler scheduler = new PriorityScheduler("PriorityLaneBenchmark-" + label, senders, 2000L);
+		Runnable bulkPush = link(TimeUnit.MILLISECONDS.toNanos(bulkPushMillis));
+		Runnable smallPush = link(TimeUnit.MILLISECONDS.toNanos(1));
+
+		long bulkInterval = TimeUnit.SECONDS.toNanos(1) / bulkPerSecond;
+		long criticalInterval = TimeUnit.MILLISECONDS.toNanos(20);
+		long normalInterval = TimeUnit.MILLISECONDS.toNanos(50);
+		long begin = System.nanoTime();
+		long end = begin + TimeUnit.SECONDS.toNanos(seconds);
+		long nextBulk = begin;
+		long nextCritical = begin;
+		long nextNormal = begin;
+		long now;
+		while ((now = System.nanoTime()) < end) {
+			if (now >= nextBulk) {
+				scheduler.execute(lanes ? PriorityClass.BULK : PriorityClass.NORMAL, 1, bulkPush);
+				nextBulk += bulkInterval;
+			}
+			if (now >= nextCritical) {
+				scheduler.execute(lanes ? PriorityClass.CRITICAL : PriorityClass.NORMAL, 1, smallPush);
+				nextCritical += criticalInterval;
+			}
+			if (now >= nextNormal) {
+				scheduler.execute(PriorityClass.NORMAL, 1, smallPush);
+				nextNormal += normalInterval;
+			}
+			LockSupport.parkNanos(Math.max(0L, Math.min(nextBulk, Math.min(nextCritical, nextNormal)) - System.nanoTime()));
+		}
+		int backlog = scheduler.getWaiting();
+		scheduler.shutdown();
+
+		System.out.printf("%-6s backlog=%d%n", label, backlog);
+		for (PriorityClass priority : PriorityClass.values()) {
+			if (scheduler.getLatency(priority).getCount() > 0) {
+				System.out.printf("  %-8s %s promoted=%d%n", priority, scheduler.getLatency(priority), scheduler.getPromotions(priority));
+			}
+		}
+	}
+
+	// Takes the place of a bound thing, a push holds the sender for as long as the link takes to carry the
+	// Speed reading it carries, and for a small push otherwise
+	private static class StandInThing extends VirtualThing {
+		private static final long serialVersionUID = 1L;
+		private final long bulkPushNanos;
+		private boolean speedPending;
+
+		StandInThing(String name, long bulkPushNanos) {
+			super(name, "Stand-in thing", null);
+			this.bulkPushNanos = bulkPushNanos;
+		}
+
+		@Override
+		public void setProperty(String name, Object value) {
+			speedPending = true;
+		}
+
+		@Override
+		public void queueEvent(String name, DateTime time, ValueCollection payload) {
+		}
+
+		@Override
+		public void updateSubscribedProperties(int timeout) {
+			LockSupport.parkNanos(speedPending ? bulkPushNanos : TimeUnit.MILLISECONDS.toNanos(1));
+			speedPending = false;
+		}
+	}
+
+	// A push that holds its sender thread for as long as the link takes to carry it
+	private static Runnable link(final long nanos) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				LockSupport.parkNanos(nanos);
+			}
+		};
+	}
+}
@@ -0,0 +1,74 @@
+package com.thingworx.sdk.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.thingworx.sdk.common.PropertyBatchListener;
+import com.thingworx.sdk.common.PropertyWriteCoalescer;
+import com.thingworx.types.primitives.IPrimitiveType;
+import com.thingworx.types.primitives.NumberPrimitive;
+import com.thingworx.types.primitives.StringPrimitive;
+
+/**
+ * Simulates a fleet-wide bulk update from the platform: every thing receives several writes of
+ * Driver, DeliveriesLeft, Speed and Location in quick succession. Reports how many callbacks the
+ * things would have received one write at a time against the number of coalesced batches, and how
+ * long a write waits before its batch is applied.
+ *
+ * Usage: PropertyWriteCoalescingBenchmark [things] [writesPerProperty] [windowMillis]
+ */
+public class PropertyWriteCoalescingBenchmark {
+	private final static String[] PROPERTIES = { "Driver", "DeliveriesLeft", "Speed", "Location" };
+
+	public static void main(String[] args) throws Exception {
+		int things = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		long window = args.length > 2 ? Long.parseLong(args[2]) : 20L;
+
+		final AtomicLong appliedValues = new AtomicLong();
+		PropertyBatchListener listener = new PropertyBatchListener() {
+			@Override
+			public void propertiesChanged(Map<String, IPrimitiveType> values) {
+				appliedValues.addAndGet(values.size());
+			}
+		};
+
+		PropertyWriteCoalescer[] coalescers = new PropertyWriteCoalescer[things];
+		for (int i = 0; i < things; i++) {
+			coalescers[i] = new PropertyWriteCoalescer(listener, window);
+		}
+
+		IPrimitiveType driver = new StringPrimitive("Max");
+		long begin = System.nanoTime();
+		for (int repeat = 0; repeat < repeats; repeat++) {
+			for (PropertyWriteCoalescer coalescer : coalescers) {
+				coalescer.offer(PROPERTIES[0], driver);
+				for (int p = 1; p < PROPERTIES.length; p++) {
+					coalescer.offer(PROPERTIES[p], new NumberPrimitive((double) repeat));
+				}
+			}
+		}
+		long offered = System.nanoTime() - begin;
+
+		// Let every window close
+		Thread.sleep(window * 2 + 500);
+
+		long writes = 0;
+		long batches = 0;
+		double latency = 0;
+		double maxLatency = 0;
+		for (PropertyWriteCoalescer coalescer : coalescers) {
+			writes += coalescer.getWriteCount();
+			batches += coalescer.getBatchCount();
+			latency += coalescer.getAverageApplyLatencyMicros() * coalescer.getBatchCount();
+			maxLatency = Math.max(maxLatency, coalescer.getMaxApplyLatencyMicros());
+		}
+
+		System.out.printf("writes received:               %d%n", writes);
+		System.out.printf("SDK thread time per write:     %.2f us%n", offered / 1000d / writes);
+		System.out.printf("single-write callbacks:        %d%n", writes);
+		System.out.printf("coalesced batch callbacks:     %d%n", batches);
+		System.out.printf("values applied:                %d%n", appliedValues.get());
+		System.out.printf("apply latency avg / max:       %.0f us / %.0f us (window %d ms)%n", latency / batches, maxLatency, window);
+	}
+}
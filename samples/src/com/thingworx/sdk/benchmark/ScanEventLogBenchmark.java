@@ -0,0 +1,107 @@
+package com.thingworx.sdk.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+
+import com.thingworx.sdk.delivery.ScanEventLog;
+import com.thingworx.sdk.delivery.ScanEventSink;
+import com.thingworx.sdk.delivery.TruckEvent;
+
+/**
+ * Measures the scan throughput of a fleet with verbose state transition output enabled, once with
+ * every scan printing to a synchronized PrintStream (what System.out.println did) and once with every
+ * scan recording into a ScanEventLog. Output is discarded in both cases so only the cost on the scan
+ * threads is measured.
+ *
+ * Usage: ScanEventLogBenchmark [scansPerThread] [threads]
+ */
+public class ScanEventLogBenchmark {
+	private final static int TRUCKS_PER_THREAD = 100;
+
+	public static void main(String[] args) throws Exception {
+		final long scans = args.length > 0 ? Long.parseLong(args[0]) : 2000000L;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		final PrintStream out = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+
+		ScanEventLog log = new ScanEventLog(new ScanEventSink() {
+			@Override
+			public void write(long timestamp, String thingName, TruckEvent event, double speed, double deliveriesLeft, int suppressed) {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		}, 65536);
+
+		System.out.println("threads, println kscans/s, ScanEventLog kscans/s, ScanEventLog dropped");
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			run(threads, scans / 10, out, null);
+			run(threads, scans / 10, null, log);
+
+			long droppedBefore = log.getDroppedCount();
+			double printed = run(threads, scans, out, null);
+			double logged = run(threads, scans, null, log);
+			System.out.printf("%d, %.0f, %.0f, %d%n", threads, printed, logged, log.getDroppedCount() - droppedBefore);
+		}
+		log.close();
+	}
+
+	private static double run(int threads, final long scansPerThread, final PrintStream out, final ScanEventLog log) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			final int threadIndex = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					String[] names = new String[TRUCKS_PER_THREAD];
+					ScanEventLog.Sampler[] samplers = new ScanEventLog.Sampler[TRUCKS_PER_THREAD];
+					for (int i = 0; i < names.length; i++) {
+						names[i] = "DeliveryTruck_" + threadIndex + "_" + i;
+						samplers[i] = new ScanEventLog.Sampler(0);
+					}
+
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					double deliveriesLeft = 500;
+					for (long scan = 0; scan < scansPerThread; scan++) {
+						int truck = (int) (scan % TRUCKS_PER_THREAD);
+						double speed = scan % 60;
+						if (out != null) {
+							out.println(names[truck] + " Is Moving!");
+						} else {
+							log.record(samplers[truck], names[truck], TruckEvent.MOVING, speed, deliveriesLeft);
+						}
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		return (double) scansPerThread * threads / elapsed * 1000000d;
+	}
+}
@@ -0,0 +1,151 @@
+package com.thingworx.sdk.benchmark;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.thingworx.sdk.common.ExecutorFactory;
+import com.thingworx.sdk.common.LatencyHistogram;
+import com.thingworx.sdk.common.ServiceExecutor;
+import com.thingworx.sdk.common.ServiceLimits;
+import com.thingworx.sdk.common.ServicePools;
+
+/**
+ * Measures how well a cheap service keeps its latency while a slow service on the same thing is flooded.
+ * Callers, standing in for the SDK threads that deliver service requests, invoke a slow service (like
+ * GetBigString under load) and a fast one (like DeliveriesCalc) in a mix, first through one shared pool
+ * of workers and then through a ServiceExecutor that limits the slow service.
+ *
+ * A last pass gives a whole fleet of things a ServiceExecutor each, invokes every service of every
+ * thing once, and reports the number of live threads, which depends on the number of services only.
+ *
+ * Usage: ServiceIsolationBenchmark [callers] [callsPerCaller] [slowMillis] [virtual] [things]
+ */
+public class ServiceIsolationBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int callers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int calls = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		final long slowMillis = args.length > 2 ? Long.parseLong(args[2]) : 20L;
+		boolean virtual = args.length > 3 && Boolean.parseBoolean(args[3]);
+		int things = args.length > 4 ? Integer.parseInt(args[4]) : 50000;
+
+		Callable<Object> slow = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Thread.sleep(slowMillis);
+				return null;
+			}
+		};
+		Callable<Object> fast = new Callable<Object>() {
+			@Override
+			public Object call() {
+				return null;
+			}
+		};
+
+		// Without isolation every service shares the same few workers, as SDK threads do
+		ServicePools sharedPools = new ServicePools(ExecutorFactory.platformThreads(), 4);
+		ServiceExecutor shared = new ServiceExecutor("Shared", new ServiceLimits(4, Integer.MAX_VALUE / 2, 60000L, 60000L), sharedPools);
+		run("shared", shared, "Service", "Service", slow, fast, callers, calls);
+
+		ServicePools isolatedPools = new ServicePools(virtual ? ExecutorFactory.virtualThreads() : ExecutorFactory.platformThreads(), 4);
+		ServiceExecutor isolated = new ServiceExecutor("Isolated", new ServiceLimits(4, 64, 60000L), isolatedPools);
+		isolated.configure("Slow", new ServiceLimits(2, 4, 60000L));
+		run("isolated", isolated, "Slow", "Fast", slow, fast, callers, calls);
+		System.out.printf("slow service queue [%s] execution [%s]%n", isolated.getQueueLatency("Slow"),
+				isolated.getExecutionLatency("Slow"));
+
+		sharedPools.shutdown();
+		isolatedPools.shutdown();
+
+		fleet(things, callers, fast, virtual);
+	}
+
+	private static void fleet(final int things, int callers, final Callable<Object> fast, boolean virtual) throws Exception {
+		final String[] services = { "GetTruckReadings", "DeliveriesCalc", "GetBigString", "Shutdown" };
+		ServicePools pools = new ServicePools(virtual ? ExecutorFactory.virtualThreads() : ExecutorFactory.platformThreads(), 4);
+		final ServiceExecutor[] executors = new ServiceExecutor[things];
+		for (int thing = 0; thing < things; thing++) {
+			executors[thing] = new ServiceExecutor("Truck" + thing, new ServiceLimits(4, 16, 60000L), pools);
+		}
+
+		int threadsBefore = Thread.activeCount();
+		final CountDownLatch done = new CountDownLatch(callers);
+		ExecutorService threads = Executors.newFixedThreadPool(callers);
+		long begin = System.nanoTime();
+		for (int c = 0; c < callers; c++) {
+			final int caller = c;
+			final int stride = callers;
+			threads.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int thing = caller; thing < things; thing += stride) {
+							for (String service : services) {
+								executors[thing].invoke(service, fast);
+							}
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		int threadsAfter = Thread.activeCount();
+		threads.shutdown();
+		pools.shutdown();
+
+		System.out.printf("fleet     %d things x %d services in %.1f s, live threads %d before, %d after%n", things, services.length,
+				(System.nanoTime() - begin) / 1e9d, threadsBefore, threadsAfter);
+	}
+
+	private static void run(String label, final ServiceExecutor executor, final String slowService, final String fastService,
+			final Callable<Object> slow, final Callable<Object> fast, int callers, final int calls) throws Exception {
+		final LatencyHistogram fastLatency = new LatencyHistogram();
+		final AtomicLong rejected = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(callers);
+		ExecutorService threads = Executors.newFixedThreadPool(callers);
+
+		long begin = System.nanoTime();
+		for (int c = 0; c < callers; c++) {
+			final boolean slowCaller = c % 2 == 0;
+			threads.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < calls; i++) {
+							long start = System.nanoTime();
+							try {
+								if (slowCaller) {
+									executor.invoke(slowService, slow);
+								} else {
+									executor.invoke(fastService, fast);
+									fastLatency.record(System.nanoTime() - start);
+								}
+							} catch (RejectedExecutionException | TimeoutException e) {
+								rejected.incrementAndGet();
+							}
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		threads.shutdown();
+
+		System.out.printf("%-9s %.1f s, fast service [%s], slow rejected=%d%n", label, (System.nanoTime() - begin) / 1e9d,
+				fastLatency, rejected.get());
+	}
+}
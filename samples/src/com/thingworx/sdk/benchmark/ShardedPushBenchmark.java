@@ -0,0 +1,236 @@
+package com.thingworx.sdk.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.thingworx.communications.client.ClientConfigurator;
+import com.thingworx.communications.client.ConnectedThingClient;
+import com.thingworx.communications.client.things.VirtualThing;
+import com.thingworx.sdk.common.ExecutorFactory;
+import com.thingworx.sdk.entities.BulkBinder;
+import com.thingworx.sdk.entities.ShardedThingHost;
+import com.thingworx.sdk.entities.ThingEntry;
+import com.thingworx.sdk.entities.ThingFactory;
+import com.thingworx.sdk.entities.ThingHandover;
+
+/**
+ * Measures aggregate push throughput of a ShardedThingHost spreading things over a growing number of
+ * connections. Each stand-in client has a single I/O thread, like a ConnectedThingClient, and every push
+ * a thing makes when it is scanned costs a fixed amount of CPU on that thread to stand in for serializing
+ * and framing the update.
+ *
+ * With the most connections, one connection is then dropped and brought back, to count the things the
+ * host moves, check that the moved things kept their state, and show that nothing moves back before the
+ * rejoin delay has passed.
+ *
+ * Usage: ShardedPushBenchmark [things] [rounds] [pushCostNanos] [rejoinDelayMillis]
+ */
+public class ShardedPushBenchmark {
+	private static volatile long sink;
+
+	public static void main(String[] args) throws Exception {
+		int things = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		long pushCost = args.length > 2 ? Long.parseLong(args[2]) : 20000L;
+		long rejoinDelay = args.length > 3 ? Long.parseLong(args[3]) : 500L;
+		int maxConnections = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+		List<ThingEntry> entries = new ArrayList<ThingEntry>(things);
+		for (int i = 0; i < things; i++) {
+			entries.add(new ThingEntry("DeliveryTruck_" + (i + 1), "Delivery truck", "DeliveryTruck", null, true, new String[0],
+					new String[0], new String[0]));
+		}
+
+		System.out.println("connections, kpushes/s, min things/connection, max things/connection");
+		for (int connections = 1; connections <= maxConnections; connections *= 2) {
+			List<StandInClient> clients = new ArrayList<StandInClient>();
+			for (int c = 0; c < connections; c++) {
+				clients.add(new StandInClient());
+			}
+			final AtomicInteger moves = new AtomicInteger();
+			ShardedThingHost host = new ShardedThingHost(clients, factory(pushCost), entries, new ThingHandover() {
+				@Override
+				public void handOver(VirtualThing previous, VirtualThing next) {
+					((StandInThing) next).scans = ((StandInThing) previous).scans;
+					moves.incrementAndGet();
+				}
+
+				@Override
+				public void release(VirtualThing thing) {
+				}
+			}, rejoinDelay);
+			host.bindAll(new BulkBinder(ExecutorFactory.platformThreads(), connections, 500), 1000L, null);
+
+			// The first round warms up
+			scan(host, clients, 1);
+			long begin = System.nanoTime();
+			long pushes = scan(host, clients, rounds);
+			long elapsed = System.nanoTime() - begin;
+
+			int[] counts = host.getThingCounts();
+			int min = Integer.MAX_VALUE;
+			int max = 0;
+			for (int count : counts) {
+				min = Math.min(min, count);
+				max = Math.max(max, count);
+			}
+			System.out.printf("%d, %.1f, %d, %d%n", connections, (double) pushes / elapsed * 1000000d, min, max);
+
+			if (connections * 2 > maxConnections) {
+				failover(host, clients, moves, rounds + 1, rejoinDelay);
+			}
+			host.shutdown();
+		}
+	}
+
+	// Drops the first client, brings it back, and reports what moved
+	private static void failover(ShardedThingHost host, List<StandInClient> clients, AtomicInteger moves, int scansSoFar,
+			long rejoinDelay) throws Exception {
+		int owned = host.getThingCounts()[0];
+		clients.get(0).connected = false;
+		scan(host, clients, 1);
+		int movedAway = moves.getAndSet(0);
+
+		int lostState = 0;
+		for (VirtualThing thing : host.getThings().values()) {
+			if (((StandInThing) thing).scans != scansSoFar + 1) {
+				lostState++;
+			}
+		}
+
+		clients.get(0).connected = true;
+		scan(host, clients, 1);
+		int movedBackEarly = moves.getAndSet(0);
+		Thread.sleep(rejoinDelay);
+		scan(host, clients, 1);
+		int movedBack = moves.getAndSet(0);
+
+		System.out.printf("dropping connection 0 of %d with %d things moved %d, %d lost their state; on reconnect %d moved back"
+				+ " right away and %d after %d ms%n", clients.size(), owned, movedAway, lostState, movedBackEarly, movedBack, rejoinDelay);
+	}
+
+	// Returns the number of pushes made
+	private static long scan(ShardedThingHost host, List<StandInClient> clients, int rounds) throws Exception {
+		long before = 0;
+		for (StandInClient client : clients) {
+			before += client.pushed.get();
+		}
+		for (int round = 0; round < rounds; round++) {
+			host.scanAll();
+		}
+		long after = 0;
+		for (StandInClient client : clients) {
+			after += client.awaitPushed();
+		}
+		return after - before;
+	}
+
+	private static ThingFactory factory(final long pushCost) {
+		return new ThingFactory() {
+			@Override
+			public VirtualThing create(ThingEntry entry, ConnectedThingClient client) {
+				return new StandInThing(entry.getName(), (StandInClient) client, pushCost);
+			}
+		};
+	}
+
+	private static void spin(long nanos) {
+		long end = System.nanoTime() + nanos;
+		long value = 0;
+		while (System.nanoTime() < end) {
+			value++;
+		}
+		sink = value;
+	}
+
+	// Counts its scans, the state a move must carry over, and pushes on its client's I/O thread
+	private static class StandInThing extends VirtualThing {
+		private static final long serialVersionUID = 1L;
+		private final StandInClient client;
+		private final long pushCost;
+		int scans;
+
+		StandInThing(String name, StandInClient client, long pushCost) {
+			super(name, "Stand-in thing", client);
+			this.client = client;
+			this.pushCost = pushCost;
+		}
+
+		@Override
+		public void processScanRequest() {
+			scans++;
+			client.push(pushCost);
+		}
+	}
+
+	// A connection with a single I/O thread, which the benchmark can drop and bring back
+	private static class StandInClient extends ConnectedThingClient {
+		private final ExecutorService ioThread = Executors.newSingleThreadExecutor();
+		private final Map<String, VirtualThing> bound = new ConcurrentHashMap<String, VirtualThing>();
+		final AtomicLong submitted = new AtomicLong();
+		final AtomicLong pushed = new AtomicLong();
+		volatile boolean connected = true;
+
+		StandInClient() throws Exception {
+			super(new ClientConfigurator());
+		}
+
+		void push(final long cost) {
+			submitted.incrementAndGet();
+			ioThread.execute(new Runnable() {
+				@Override
+				public void run() {
+					spin(cost);
+					pushed.incrementAndGet();
+				}
+			});
+		}
+
+		long awaitPushed() throws InterruptedException {
+			while (pushed.get() < submitted.get()) {
+				Thread.sleep(1);
+			}
+			return pushed.get();
+		}
+
+		@Override
+		public void bindThing(VirtualThing thing) {
+			bound.put(thing.getName(), thing);
+		}
+
+		@Override
+		public void bindThings(List<VirtualThing> things) {
+			for (VirtualThing thing : things) {
+				bindThing(thing);
+			}
+		}
+
+		@Override
+		public void unbindThing(VirtualThing thing) {
+			bound.remove(thing.getName());
+		}
+
+		@Override
+		public Map<String, VirtualThing> getThings() {
+			return bound;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return connected;
+		}
+
+		@Override
+		public void shutdown() throws Exception {
+			ioThread.shutdown();
+			ioThread.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+}
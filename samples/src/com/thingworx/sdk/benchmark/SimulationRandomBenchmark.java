@@ -0,0 +1,87 @@
+package com.thingworx.sdk.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.thingworx.sdk.delivery.SimulationRandom;
+import com.thingworx.sdk.delivery.SimulationRandoms;
+
+/**
+ * Compares the random number draws of a DeliveryTruckThing scan when every truck shares
+ * Math.random() against every truck owning a seeded SimulationRandom. Each thread scans its own
+ * trucks, the same way several scan threads would split a fleet.
+ *
+ * Usage: SimulationRandomBenchmark [drawsPerThread]
+ */
+public class SimulationRandomBenchmark {
+	private final static int TRUCKS_PER_THREAD = 100;
+	// A delivery stop draws the counter, a speed and a location
+	private final static int DRAWS_PER_SCAN = 4;
+
+	private static volatile double sink;
+
+	public static void main(String[] args) throws Exception {
+		long draws = args.length > 0 ? Long.parseLong(args[0]) : 20000000L;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		System.out.println("threads, Math.random() Mdraws/s, SimulationRandom Mdraws/s");
+		for (int threads = 1; threads <= cores; threads *= 2) {
+			// Warm up both paths before measuring
+			run(threads, draws / 10, false);
+			run(threads, draws / 10, true);
+
+			double shared = run(threads, draws, false);
+			double perThing = run(threads, draws, true);
+			System.out.printf("%d, %.1f, %.1f%n", threads, shared, perThing);
+		}
+	}
+
+	private static double run(int threads, final long drawsPerThread, final boolean perThing) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			final int threadIndex = t;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					SimulationRandom[] trucks = new SimulationRandom[TRUCKS_PER_THREAD];
+					for (int i = 0; i < trucks.length; i++) {
+						trucks[i] = SimulationRandoms.forThing(42L, "DeliveryTruck_" + threadIndex + "_" + i);
+					}
+
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					double total = 0;
+					for (long i = 0; i < drawsPerThread; i += DRAWS_PER_SCAN) {
+						if (perThing) {
+							SimulationRandom random = trucks[(int) ((i / DRAWS_PER_SCAN) % TRUCKS_PER_THREAD)];
+							total += random.nextInt(100000);
+							for (int d = 1; d < DRAWS_PER_SCAN; d++) {
+								total += random.nextDouble();
+							}
+						} else {
+							total += (int) (100000 * Math.random());
+							for (int d = 1; d < DRAWS_PER_SCAN; d++) {
+								total += Math.random();
+							}
+						}
+					}
+					sink = total;
+					done.countDown();
+				}
+			});
+			thread.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		return (double) drawsPerThread * threads / elapsed * 1000d;
+	}
+}
@@ -0,0 +1,155 @@
+package com.thingworx.sdk.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.joda.time.DateTime;
+
+import com.thingworx.communications.client.things.VirtualThing;
+import com.thingworx.sdk.common.OutboundPipeline;
+import com.thingworx.sdk.common.OutboundQueue;
+import com.thingworx.sdk.common.OverflowPolicy;
+import com.thingworx.sdk.common.TraceRecorder;
+import com.thingworx.sdk.common.TraceReplayer;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.structs.Location;
+
+/**
+ * Records the traffic of a simulated fleet into a trace and replays it at 1x, 10x and as fast as
+ * possible on a larger fleet. Stand-in things take the place of the SDK: each push holds its sender
+ * thread for the time a link takes to carry it, so the max speed shows the rate the outbound pipeline
+ * sustains.
+ *
+ * The recording pass reports what staging an update costs the scan thread with and without the
+ * recorder installed.
+ *
+ * Usage: TraceReplayBenchmark [things] [scans] [scanMillis] [fanOut] [senders] [pushMicros]
+ */
+public class TraceReplayBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int things = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int scans = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		long scanMillis = args.length > 2 ? Long.parseLong(args[2]) : 40L;
+		int fanOut = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		int senders = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+		long pushMicros = args.length > 5 ? Long.parseLong(args[5]) : 50L;
+
+		File trace = File.createTempFile("TraceReplayBenchmark", ".trace");
+		trace.deleteOnExit();
+
+		// The first pass warms up the staging path
+		record(things, scans, scanMillis, null, senders);
+		long plain = record(things, scans, scanMillis, null, senders);
+		TraceRecorder recorder = new TraceRecorder(trace.getPath());
+		long recorded = record(things, scans, scanMillis, recorder, senders);
+		recorder.close();
+		long updates = recorder.getRecordCount();
+		System.out.printf("recorded %d records in %d bytes (%.1f bytes/record), staging %.0f ns/update plain, %.0f ns/update recording%n",
+				updates, trace.length(), (double) trace.length() / updates, (double) plain / updates, (double) recorded / updates);
+
+		double[] speeds = { 1d, 10d, Double.POSITIVE_INFINITY };
+		for (double speed : speeds) {
+			replay(trace.getPath(), speed, fanOut, senders, pushMicros);
+		}
+	}
+
+	// Returns the nanoseconds spent staging
+	private static long record(int things, int scans, long scanMillis, TraceRecorder recorder, int senders) throws Exception {
+		OutboundPipeline pipeline = new OutboundPipeline(senders, 1000);
+		pipeline.setRecorder(recorder);
+		List<OutboundQueue> queues = new ArrayList<OutboundQueue>();
+		for (int thing = 0; thing < things; thing++) {
+			queues.add(pipeline.register(new StandInThing("Truck" + thing, 0L), 100, OverflowPolicy.DROP_OLDEST));
+		}
+
+		Random random = new Random(7L);
+		long staging = 0;
+		for (int scan = 0; scan < scans; scan++) {
+			long start = System.nanoTime();
+			for (OutboundQueue queue : queues) {
+				Location location = new Location();
+				location.setLatitude(42d + random.nextDouble());
+				location.setLongitude(-71d + random.nextDouble());
+				queue.setProperty("Speed", random.nextDouble() * 100d);
+				queue.setProperty("Location", location);
+				queue.setProperty("DeliveriesLeft", (double) (500 - scan));
+				if (random.nextInt(10) == 0) {
+					ValueCollection payload = new ValueCollection();
+					payload.SetStringValue("Truck", queue.getThing().getName());
+					payload.SetNumberValue("RemainingDeliveries", (double) (500 - scan));
+					payload.SetDateTimeValue("ActivationTime", new DateTime());
+					queue.queueEvent("DeliveryStop", new DateTime(), payload);
+				}
+				queue.commit();
+			}
+			staging += System.nanoTime() - start;
+			Thread.sleep(scanMillis);
+		}
+		pipeline.awaitDrained(10000L);
+		pipeline.shutdown();
+		return staging;
+	}
+
+	private static void replay(String trace, double speed, int fanOut, int senders, long pushMicros) throws Exception {
+		OutboundPipeline pipeline = new OutboundPipeline(senders, 1000);
+		TraceReplayer replayer = new TraceReplayer(trace, speed);
+		List<StandInThing> targets = new ArrayList<StandInThing>();
+		for (String recorded : replayer.getThings()) {
+			for (int copy = 0; copy < fanOut; copy++) {
+				StandInThing thing = new StandInThing(recorded + "-" + copy, TimeUnit.MICROSECONDS.toNanos(pushMicros));
+				targets.add(thing);
+				// BLOCK lets the pipeline hold the replay back instead of dropping its events
+				replayer.addTarget(recorded, pipeline.register(thing, 100, OverflowPolicy.BLOCK));
+			}
+		}
+
+		long begin = System.nanoTime();
+		replayer.replay();
+		pipeline.awaitDrained(60000L);
+		double seconds = (System.nanoTime() - begin) / 1e9d;
+		pipeline.shutdown();
+
+		long pushed = 0;
+		for (StandInThing thing : targets) {
+			pushed += thing.updates.get();
+		}
+		System.out.printf("replay %4s on %d things: %.2f s, %.0f updates/s pushed, lag [%s]%n",
+				speed == Double.POSITIVE_INFINITY ? "max" : (int) speed + "x", targets.size(), seconds,
+				pushed / seconds, replayer.getLag());
+	}
+
+	// Takes the place of a bound thing, each push holds the sender for the time the link takes
+	private static class StandInThing extends VirtualThing {
+		private static final long serialVersionUID = 1L;
+		private final long pushNanos;
+		final AtomicLong updates = new AtomicLong();
+
+		StandInThing(String name, long pushNanos) {
+			super(name, "Stand-in thing", null);
+			this.pushNanos = pushNanos;
+		}
+
+		@Override
+		public void setProperty(String name, Object value) {
+			updates.incrementAndGet();
+		}
+
+		@Override
+		public void queueEvent(String name, DateTime time, ValueCollection payload) {
+			updates.incrementAndGet();
+		}
+
+		@Override
+		public void updateSubscribedProperties(int timeout) {
+			if (pushNanos > 0) {
+				LockSupport.parkNanos(pushNanos);
+			}
+		}
+	}
+}
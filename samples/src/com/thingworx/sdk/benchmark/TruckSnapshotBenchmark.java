@@ -0,0 +1,50 @@
+package com.thingworx.sdk.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import com.thingworx.sdk.delivery.TruckState;
+import com.thingworx.sdk.delivery.TruckStateSnapshot;
+
+/**
+ * Measures how long a fleet's state takes to save on shutdown and to read back on start, the part of
+ * a warm restart's time to first correct push that grows with the fleet. The rest, connecting and
+ * binding, is logged by DeliveryTruckClient as the time from process start to the first push.
+ *
+ * Usage: TruckSnapshotBenchmark [trucks] [rounds] [file]
+ */
+public class TruckSnapshotBenchmark {
+	private static final String[] DRIVERS = { "Max", "Mellissa", "Mathew", "Megan", "Merv", "Michelle", "Merideth", "Mona", "Maxine" };
+
+	public static void main(String[] args) throws Exception {
+		int trucks = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		File file = args.length > 2 ? new File(args[2]) : File.createTempFile("trucks", ".snapshot");
+		file.deleteOnExit();
+
+		SplittableRandom random = new SplittableRandom(42L);
+		List<TruckState> states = new ArrayList<TruckState>(trucks);
+		for (int t = 0; t < trucks; t++) {
+			double made = random.nextInt(500);
+			states.add(new TruckState("DeliveryTruck_" + t, made, 500 - made, 500, DRIVERS[random.nextInt(DRIVERS.length)],
+					40 + 45 * random.nextDouble(), -70 - 80 * random.nextDouble(), 0d));
+		}
+
+		for (int round = 0; round < rounds; round++) {
+			long begin = System.nanoTime();
+			TruckStateSnapshot.write(file.getPath(), states);
+			long written = System.nanoTime();
+			Map<String, TruckState> restored = TruckStateSnapshot.load(file.getPath());
+			long read = System.nanoTime();
+
+			if (restored.size() != trucks) {
+				throw new IllegalStateException("Restored " + restored.size() + " of " + trucks + " trucks");
+			}
+			System.out.printf("%d trucks, %d bytes: write %.1f ms, read %.1f ms%n", trucks, file.length(),
+					(written - begin) / 1000000d, (read - written) / 1000000d);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.thingworx.sdk.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring that maps keys, such as thing names, to nodes, such as client connections.
+ * Each node is placed on the ring several times so that keys are spread evenly, and removing a node
+ * only moves the keys that it owned.
+ *
+ * @param <T> The type of the nodes.
+ */
+public class ConsistentHashRing<T> {
+	private final int virtualNodes;
+	private final TreeMap<Integer, T> ring = new TreeMap<Integer, T>();
+
+	/**
+	 * @param virtualNodes How many times each node is placed on the ring.
+	 */
+	public ConsistentHashRing(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+	}
+
+	/**
+	 * Builds a ring holding the given nodes.
+	 *
+	 * @param nodes The nodes, each identified by its key.
+	 * @param virtualNodes How many times each node is placed on the ring.
+	 * @return The new ring.
+	 */
+	public static <T> ConsistentHashRing<T> of(Map<String, T> nodes, int virtualNodes) {
+		ConsistentHashRing<T> ring = new ConsistentHashRing<T>(virtualNodes);
+		for (Map.Entry<String, T> node : nodes.entrySet()) {
+			ring.add(node.getKey(), node.getValue());
+		}
+		return ring;
+	}
+
+	/**
+	 * @param nodeKey A stable identifier of the node, its position on the ring is derived from it.
+	 * @param node The node.
+	 */
+	public void add(String nodeKey, T node) {
+		for (int replica = 0; replica < virtualNodes; replica++) {
+			ring.put(hash(nodeKey + "#" + replica), node);
+		}
+	}
+
+	public void remove(String nodeKey) {
+		for (int replica = 0; replica < virtualNodes; replica++) {
+			ring.remove(hash(nodeKey + "#" + replica));
+		}
+	}
+
+	/**
+	 * @param key The key, for example a thing name.
+	 * @return The node that owns the key, or null if the ring is empty.
+	 */
+	public T get(String key) {
+		if (ring.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Integer, T> owner = ring.ceilingEntry(hash(key));
+		return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+	}
+
+	public boolean isEmpty() {
+		return ring.isEmpty();
+	}
+
+	// String.hashCode clusters similar names such as DeliveryTruck_1..n, spread it with the murmur3 finalizer
+	private static int hash(String key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
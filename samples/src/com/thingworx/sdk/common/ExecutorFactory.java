@@ -0,0 +1,86 @@
+package com.thingworx.sdk.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the executors {@link ServicePools} runs service invocations on.
+ */
+public abstract class ExecutorFactory {
+	private static final Logger LOG = LoggerFactory.getLogger(ExecutorFactory.class);
+
+	/**
+	 * @param name A name for the executor's threads.
+	 * @param threads The most invocations the executor will be given at the same time.
+	 * @return A new executor.
+	 */
+	public abstract ExecutorService create(String name, int threads);
+
+	/**
+	 * @return A factory of platform thread pools whose idle threads time out, so that services invoked
+	 * rarely do not keep their threads alive.
+	 */
+	public static ExecutorFactory platformThreads() {
+		return new ExecutorFactory() {
+			@Override
+			public ExecutorService create(final String name, int threads) {
+				final AtomicInteger threadCount = new AtomicInteger();
+				return pool(threads, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * @return A factory of pools of virtual threads when running on Java 21 or later, otherwise
+	 * {@link #platformThreads()}. Like the platform pools they run at most the given number of invocations
+	 * at a time, the virtual threads only make the threads themselves cheap.
+	 */
+	public static ExecutorFactory virtualThreads() {
+		final Method ofVirtual;
+		final Method name;
+		final Method factory;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			LOG.warn("Virtual threads are not available on this Java version, using platform threads");
+			return platformThreads();
+		}
+
+		return new ExecutorFactory() {
+			@Override
+			public ExecutorService create(String poolName, int threads) {
+				try {
+					Object builder = name.invoke(ofVirtual.invoke(null), poolName + "-", 1L);
+					return pool(threads, (ThreadFactory) factory.invoke(builder));
+				} catch (Exception e) {
+					throw new IllegalStateException("Could not create a virtual thread executor", e);
+				}
+			}
+		};
+	}
+
+	private static ExecutorService pool(int threads, ThreadFactory threadFactory) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
@@ -0,0 +1,238 @@
+package com.thingworx.sdk.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.thingworx.metadata.collections.FieldDefinitionCollection;
+import com.thingworx.types.InfoTable;
+import com.thingworx.types.collections.ValueCollection;
+
+/**
+ * Tracks the rows of an INFOTABLE property by primary key, so that an update sends only the rows that
+ * were inserted, updated or deleted since the previous update instead of the whole table.
+ *
+ * Each call to {@link #update(InfoTable)} compares the new contents of the table with the rows sent so
+ * far and returns a {@link Change}: either a delta, or a full snapshot when the receiving side may not
+ * hold the previous rows. A snapshot is taken on the first update, after {@link #reset()}, when the data
+ * shape changes, once the snapshot interval has passed, and whenever the delta would not be much
+ * smaller than the table. Every change carries a sequence number, so the receiving side can tell that it
+ * missed a delta and wait for the next snapshot.
+ *
+ * Field values are compared with equals, so a row whose value objects are modified in place rather
+ * than replaced is not seen as updated. Tables passed in are sent as they are and must not be modified
+ * afterwards.
+ */
+public class InfoTableDeltaTracker {
+	private final String keyField;
+	private final long snapshotIntervalNanos;
+	private final double maxChangeRatio;
+
+	// Guarded by this, null until the first snapshot
+	private Map<Object, SentRow> sent;
+	private List<String> fields;
+	private long lastSnapshotNanos;
+	private long sequence;
+	private long snapshots;
+	private long deltas;
+	private long changedRows;
+
+	/**
+	 * @param keyField The name of the primary key field, unique and never null in every row.
+	 * @param snapshotIntervalMillis How often a full snapshot is sent even when deltas would do.
+	 * @param maxChangeRatio The share of the rows, between 0 and 1, above which a snapshot is sent instead of a delta.
+	 */
+	public InfoTableDeltaTracker(String keyField, long snapshotIntervalMillis, double maxChangeRatio) {
+		this.keyField = keyField;
+		this.snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+		this.maxChangeRatio = maxChangeRatio;
+	}
+
+	/**
+	 * Compares the table with the rows sent so far, and records it as sent.
+	 *
+	 * @param table The whole current contents of the property.
+	 * @return The change to send, which is empty if no row changed.
+	 * @throws IllegalArgumentException If a row has no key, or two rows have the same key.
+	 */
+	public synchronized Change update(InfoTable table) {
+		List<String> tableFields = fieldsOf(table);
+		Map<Object, SentRow> current = new HashMap<Object, SentRow>(table.getRowCount() * 4 / 3 + 1);
+		for (ValueCollection row : table.getRows()) {
+			Object key = row.getValue(keyField);
+			if (key == null) {
+				throw new IllegalArgumentException("A row has no value for the key field " + keyField);
+			}
+			if (current.put(key, new SentRow(row, valuesOf(row, tableFields))) != null) {
+				throw new IllegalArgumentException("More than one row has the key " + key);
+			}
+		}
+
+		long now = System.nanoTime();
+		if (sent == null || !tableFields.equals(fields) || now - lastSnapshotNanos >= snapshotIntervalNanos) {
+			return snapshot(table, tableFields, current, now);
+		}
+
+		InfoTable upserted = new InfoTable(table.getDataShape());
+		for (Map.Entry<Object, SentRow> entry : current.entrySet()) {
+			SentRow previous = sent.get(entry.getKey());
+			if (previous == null || !Arrays.equals(previous.values, entry.getValue().values)) {
+				upserted.addRow(entry.getValue().row);
+			}
+		}
+		// Deleted rows are sent with their key alone
+		InfoTable deleted = new InfoTable(table.getDataShape());
+		for (Map.Entry<Object, SentRow> entry : sent.entrySet()) {
+			if (!current.containsKey(entry.getKey())) {
+				ValueCollection row = new ValueCollection();
+				row.put(keyField, entry.getValue().row.get(keyField));
+				deleted.addRow(row);
+			}
+		}
+
+		int changes = upserted.getRowCount() + deleted.getRowCount();
+		if (changes == 0) {
+			sent = current;
+			return new Change(false, sequence, table, upserted, deleted);
+		}
+		if (changes > maxChangeRatio * Math.max(current.size(), sent.size())) {
+			return snapshot(table, tableFields, current, now);
+		}
+
+		sent = current;
+		sequence++;
+		deltas++;
+		changedRows += changes;
+		return new Change(false, sequence, table, upserted, deleted);
+	}
+
+	/**
+	 * Forgets the rows sent so far, so the next update is a full snapshot. Called when the receiving side
+	 * may have missed a change, such as after a reconnect or when a delta was dropped.
+	 */
+	public synchronized void reset() {
+		sent = null;
+	}
+
+	/**
+	 * @return The sequence number of the last change returned.
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	public synchronized long getSnapshots() {
+		return snapshots;
+	}
+
+	public synchronized long getDeltas() {
+		return deltas;
+	}
+
+	/**
+	 * @return The number of inserted, updated and deleted rows sent in deltas.
+	 */
+	public synchronized long getChangedRows() {
+		return changedRows;
+	}
+
+	private Change snapshot(InfoTable table, List<String> tableFields, Map<Object, SentRow> current, long now) {
+		sent = current;
+		fields = tableFields;
+		lastSnapshotNanos = now;
+		sequence++;
+		snapshots++;
+		return new Change(true, sequence, table, null, null);
+	}
+
+	private List<String> fieldsOf(InfoTable table) {
+		FieldDefinitionCollection shapeFields = table.getDataShape().getFields();
+		List<String> names = new ArrayList<String>(shapeFields.keySet());
+		Collections.sort(names);
+		if (!names.contains(keyField)) {
+			throw new IllegalArgumentException("The data shape has no key field " + keyField);
+		}
+		return names;
+	}
+
+	private static Object[] valuesOf(ValueCollection row, List<String> fields) {
+		Object[] values = new Object[fields.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = row.getValue(fields.get(i));
+		}
+		return values;
+	}
+
+	private static final class SentRow {
+		final ValueCollection row;
+		final Object[] values;
+
+		SentRow(ValueCollection row, Object[] values) {
+			this.row = row;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * A change to send for the property: either the whole table, or the rows inserted or updated and the
+	 * keys of the rows deleted since the previous change.
+	 */
+	public static final class Change {
+		private final boolean snapshot;
+		private final long sequence;
+		private final InfoTable table;
+		private final InfoTable upserted;
+		private final InfoTable deleted;
+
+		Change(boolean snapshot, long sequence, InfoTable table, InfoTable upserted, InfoTable deleted) {
+			this.snapshot = snapshot;
+			this.sequence = sequence;
+			this.table = table;
+			this.upserted = upserted;
+			this.deleted = deleted;
+		}
+
+		/**
+		 * @return true if the whole table must be sent.
+		 */
+		public boolean isSnapshot() {
+			return snapshot;
+		}
+
+		/**
+		 * @return true if nothing needs to be sent.
+		 */
+		public boolean isEmpty() {
+			return !snapshot && upserted.getRowCount() == 0 && deleted.getRowCount() == 0;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return The whole table, as passed to {@link InfoTableDeltaTracker#update(InfoTable)}.
+		 */
+		public InfoTable getTable() {
+			return table;
+		}
+
+		/**
+		 * @return The rows inserted or updated, or null for a snapshot.
+		 */
+		public InfoTable getUpserted() {
+			return upserted;
+		}
+
+		/**
+		 * @return The rows deleted, holding only their key, or null for a snapshot.
+		 */
+		public InfoTable getDeleted() {
+			return deleted;
+		}
+	}
+}
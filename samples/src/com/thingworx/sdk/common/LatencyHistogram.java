@@ -0,0 +1,81 @@
+package com.thingworx.sdk.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe, fixed-size latency histogram with power-of-two microsecond buckets: bucket n holds
+ * latencies below 2^n microseconds. Percentiles are reported as the upper bound of their bucket, so
+ * they are accurate to within a factor of two, which is enough to compare queueing with execution
+ * time or to watch a tail grow.
+ */
+public class LatencyHistogram {
+	private final static int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos The latency to record, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0L, nanos / 1000L);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return The mean latency, in milliseconds.
+	 */
+	public double getAverageMillis() {
+		long recorded = count.get();
+		return recorded == 0 ? 0d : totalNanos.get() / 1000000d / recorded;
+	}
+
+	/**
+	 * @return The largest latency recorded, in milliseconds.
+	 */
+	public double getMaxMillis() {
+		return maxNanos.get() / 1000000d;
+	}
+
+	/**
+	 * @param quantile The quantile, between 0 and 1, for example 0.99 for the 99th percentile.
+	 * @return The upper bound of the bucket holding the quantile, in milliseconds.
+	 */
+	public double getPercentileMillis(double quantile) {
+		long recorded = count.get();
+		if (recorded == 0) {
+			return 0d;
+		}
+
+		long rank = (long) Math.ceil(quantile * recorded);
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += buckets.get(bucket);
+			if (seen >= rank) {
+				return Math.min((1L << bucket) / 1000d, getMaxMillis());
+			}
+		}
+		return getMaxMillis();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d avg=%.2fms p50=%.2fms p99=%.2fms max=%.2fms", getCount(), getAverageMillis(),
+				getPercentileMillis(0.5d), getPercentileMillis(0.99d), getMaxMillis());
+	}
+}
@@ -0,0 +1,214 @@
+package com.thingworx.sdk.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.thingworx.communications.client.things.VirtualThing;
+
+/**
+ * Decouples scanning from pushing. Things stage their property values and events in an
+ * {@link OutboundQueue}, and a small pool of sender threads calls updateSubscribedProperties and
+ * updateSubscribedEvents for them. A slow server only delays the sender threads, never the scans.
+ *
+ * The sender threads serve the {@link PriorityClass} lanes of the queues by weighted fair queuing, see
+ * {@link PriorityScheduler}; what belongs to which lane is declared per thing type, see {@link PriorityClasses}.
+ */
+public class OutboundPipeline {
+	private final static int DEFAULT_TIMEOUT = 1000;
+	private final static long DRAIN_POLL_MILLIS = 5L;
+	// Run with -Doutbound.maxWait=<ms> to change how long a flush of any lane may wait before it runs next
+	private final static long MAX_WAIT_MILLIS = Long.getLong("outbound.maxWait", 2000L);
+
+	private static volatile OutboundPipeline shared;
+
+	private final PriorityScheduler senders;
+	private final int timeout;
+
+	private final AtomicInteger scheduledFlushes = new AtomicInteger();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong totalFlushNanos = new AtomicLong();
+	private final AtomicLong maxFlushNanos = new AtomicLong();
+	private final AtomicLong droppedEvents = new AtomicLong();
+	// Records what the queues stage when set, see TraceRecorder
+	private volatile TraceRecorder recorder;
+	private final LatencyHistogram[] flushLatency = new LatencyHistogram[PriorityClass.values().length];
+
+	/**
+	 * @param senderThreads The number of threads pushing updates to the server.
+	 * @param timeout The timeout of each push, in milliseconds.
+	 */
+	public OutboundPipeline(int senderThreads, int timeout) {
+		this.senders = new PriorityScheduler("OutboundPipeline-sender", senderThreads, MAX_WAIT_MILLIS);
+		this.timeout = timeout;
+		for (PriorityClass priority : PriorityClass.values()) {
+			flushLatency[priority.ordinal()] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * @return The pipeline shared by all things. Run with -Doutbound.senders=n to change its number of sender threads.
+	 */
+	public static OutboundPipeline shared() {
+		OutboundPipeline pipeline = shared;
+		if (pipeline == null) {
+			synchronized (OutboundPipeline.class) {
+				pipeline = shared;
+				if (pipeline == null) {
+					pipeline = new OutboundPipeline(Integer.getInteger("outbound.senders", 2), DEFAULT_TIMEOUT);
+					shared = pipeline;
+				}
+			}
+		}
+		return pipeline;
+	}
+
+	/**
+	 * Creates the outbound queue of a thing whose traffic is all {@link PriorityClass#NORMAL}.
+	 *
+	 * @param thing The thing whose updates are pushed.
+	 * @param eventCapacity The number of events that can wait to be pushed.
+	 * @param eventPolicy What to do with a new event when the queue is full.
+	 * @return The queue the thing stages its updates in.
+	 */
+	public OutboundQueue register(VirtualThing thing, int eventCapacity, OverflowPolicy eventPolicy) {
+		return register(thing, eventCapacity, eventPolicy, new PriorityClasses());
+	}
+
+	/**
+	 * Creates the outbound queue of a thing.
+	 *
+	 * @param thing The thing whose updates are pushed.
+	 * @param eventCapacity The number of events that can wait to be pushed.
+	 * @param eventPolicy What to do with a new event when the queue is full.
+	 * @param priorities The priority classes of the thing's events and properties, shared by its type.
+	 * @return The queue the thing stages its updates in.
+	 */
+	public OutboundQueue register(VirtualThing thing, int eventCapacity, OverflowPolicy eventPolicy, PriorityClasses priorities) {
+		return new OutboundQueue(thing, this, eventCapacity, eventPolicy, priorities);
+	}
+
+	/**
+	 * Waits for the flushes already scheduled to complete. Commit the queues to drain first.
+	 *
+	 * @param timeoutMillis The most time to wait, in milliseconds.
+	 * @return true if nothing was left to push, false if the timeout expired first.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (scheduledFlushes.get() > 0) {
+			if (System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			Thread.sleep(DRAIN_POLL_MILLIS);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the sender threads once the flushes already scheduled have run.
+	 */
+	public void shutdown() {
+		senders.shutdown();
+	}
+
+	/**
+	 * @return The number of things waiting for a sender thread, or being flushed.
+	 */
+	public int getScheduledFlushes() {
+		return scheduledFlushes.get();
+	}
+
+	/**
+	 * @return The number of flushes completed.
+	 */
+	public long getFlushCount() {
+		return flushes.get();
+	}
+
+	/**
+	 * @return The average time from a value being staged until it was pushed, in milliseconds.
+	 */
+	public double getAverageFlushLatencyMillis() {
+		long count = flushes.get();
+		return count == 0 ? 0d : totalFlushNanos.get() / 1000000d / count;
+	}
+
+	/**
+	 * @return The longest time from a value being staged until it was pushed, in milliseconds.
+	 */
+	public double getMaxFlushLatencyMillis() {
+		return maxFlushNanos.get() / 1000000d;
+	}
+
+	/**
+	 * @param priority A priority class.
+	 * @return The time from a value of the class being staged until it was pushed.
+	 */
+	public LatencyHistogram getFlushLatency(PriorityClass priority) {
+		return flushLatency[priority.ordinal()];
+	}
+
+	/**
+	 * Records the property values, events and commits staged in every queue of this pipeline from now on.
+	 *
+	 * @param traceRecorder The recorder, or null to stop recording.
+	 */
+	public void setRecorder(TraceRecorder traceRecorder) {
+		recorder = traceRecorder;
+	}
+
+	/**
+	 * @return The recorder set, or null if the pipeline is not recording.
+	 */
+	public TraceRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * @return The scheduler running the flushes, for its per-lane statistics.
+	 */
+	public PriorityScheduler getScheduler() {
+		return senders;
+	}
+
+	/**
+	 * @return The number of events dropped by the overflow policies of all queues.
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+
+	int getTimeout() {
+		return timeout;
+	}
+
+	void schedule(PriorityClass priority, int cost, final Runnable flush) {
+		scheduledFlushes.incrementAndGet();
+		senders.execute(priority, cost, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush.run();
+				} finally {
+					scheduledFlushes.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	void recordFlush(PriorityClass priority, long latencyNanos) {
+		flushLatency[priority.ordinal()].record(latencyNanos);
+		flushes.incrementAndGet();
+		totalFlushNanos.addAndGet(latencyNanos);
+		long max = maxFlushNanos.get();
+		while (latencyNanos > max && !maxFlushNanos.compareAndSet(max, latencyNanos)) {
+			max = maxFlushNanos.get();
+		}
+	}
+
+	void recordDroppedEvent() {
+		droppedEvents.incrementAndGet();
+	}
+}
@@ -0,0 +1,351 @@
+package com.thingworx.sdk.common;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thingworx.communications.client.things.VirtualThing;
+import com.thingworx.types.collections.ValueCollection;
+
+/**
+ * The outbound property values and events of a single thing, waiting to be pushed by an
+ * {@link OutboundPipeline} sender thread.
+ *
+ * Properties are latest-value-wins: setting a property that has not been pushed yet replaces the
+ * pending value. Events are kept in order in a bounded queue whose {@link OverflowPolicy} decides what
+ * happens when it is full. A scan stages its values and calls {@link #commit()}; it never waits on the
+ * network unless the event policy is {@link OverflowPolicy#BLOCK}.
+ *
+ * Values and events are kept in a lane per {@link PriorityClass}, as declared in the
+ * {@link PriorityClasses} of the thing's type. A thing is flushed by a single task, scheduled in the
+ * pipeline's scheduler in the highest class it has pending, which pushes all of the thing's lanes in
+ * priority order with one updateSubscribedProperties and one updateSubscribedEvents call. A DeliveryStop
+ * therefore never waits on a Speed-only flush of its own thing holding the SDK's pending updates, and a
+ * scan costs one round trip per kind of update whatever the number of lanes. When higher priority values
+ * are staged after a lower priority flush was scheduled, a flush is scheduled again in the higher class;
+ * whichever runs first pushes everything. Lanes are created on first use, and flushes of the same thing
+ * never overlap.
+ */
+public class OutboundQueue {
+	private static final Logger LOG = LoggerFactory.getLogger(OutboundQueue.class);
+
+	private final VirtualThing thing;
+	private final OutboundPipeline pipeline;
+	private final OverflowPolicy eventPolicy;
+	private final int eventCapacity;
+	private final PriorityClasses priorities;
+
+	// Indexed by PriorityClass ordinal, null until the lane is first used
+	private final Lane[] lanes = new Lane[PriorityClass.values().length];
+	private final Object flushLock = new Object();
+	// The ordinal of the class the next flush was scheduled in, NOT_SCHEDULED while no flush is waiting to start
+	private final static int NOT_SCHEDULED = Integer.MAX_VALUE;
+	private final AtomicInteger scheduled = new AtomicInteger(NOT_SCHEDULED);
+	private final AtomicLong droppedEvents = new AtomicLong();
+
+	OutboundQueue(VirtualThing thing, OutboundPipeline pipeline, int eventCapacity, OverflowPolicy eventPolicy,
+			PriorityClasses priorities) {
+		this.thing = thing;
+		this.pipeline = pipeline;
+		this.eventPolicy = eventPolicy;
+		this.eventCapacity = eventCapacity;
+		this.priorities = priorities;
+	}
+
+	/**
+	 * Stages a property value, replacing any value of the same property that has not been pushed yet.
+	 *
+	 * @param name The name of the property.
+	 * @param value The new value, as accepted by VirtualThing.setProperty.
+	 */
+	public void setProperty(String name, Object value) {
+		TraceRecorder recorder = pipeline.getRecorder();
+		if (recorder != null) {
+			recorder.recordProperty(thing.getName(), name, value);
+		}
+		Lane lane = lane(priorities.ofProperty(name));
+		lane.markPending();
+		lane.properties.put(name, value);
+	}
+
+	/**
+	 * Stages an event, applying the queue's overflow policy if the event queue is full.
+	 *
+	 * @param name The name of the event.
+	 * @param time The time of the event.
+	 * @param payload The event payload.
+	 * @return false if this event, or an older one, was dropped.
+	 * @throws InterruptedException If interrupted while waiting for room with the BLOCK policy.
+	 */
+	public boolean queueEvent(String name, DateTime time, ValueCollection payload) throws InterruptedException {
+		TraceRecorder recorder = pipeline.getRecorder();
+		if (recorder != null) {
+			recorder.recordEvent(thing.getName(), name, time, payload);
+		}
+		return queue(lane(priorities.ofEvent(name)), new PendingEvent(name, time, payload, null));
+	}
+
+	/**
+	 * Stages an event whose payload was written in the layout of a {@link PayloadSchema}. The record
+	 * belongs to the queue from now on; it is converted for the SDK on the sender thread and returned to
+	 * its pool once pushed or dropped.
+	 *
+	 * @param name The name of the event.
+	 * @param time The time of the event.
+	 * @param payload The event payload.
+	 * @return false if this event, or an older one, was dropped.
+	 * @throws InterruptedException If interrupted while waiting for room with the BLOCK policy.
+	 */
+	public boolean queueEvent(String name, DateTime time, PayloadRecord payload) throws InterruptedException {
+		TraceRecorder recorder = pipeline.getRecorder();
+		if (recorder != null) {
+			// Converted here only when recording, the record itself is still converted on the sender thread
+			recorder.recordEvent(thing.getName(), name, time, payload.toValueCollection());
+		}
+		return queue(lane(priorities.ofEvent(name)), new PendingEvent(name, time, null, payload));
+	}
+
+	/**
+	 * Hands the staged values to a sender thread. Called once at the end of a scan, so all the values
+	 * of the scan are pushed together, lane by lane.
+	 */
+	public void commit() {
+		TraceRecorder recorder = pipeline.getRecorder();
+		if (recorder != null) {
+			recorder.recordCommit(thing.getName());
+		}
+		schedule();
+	}
+
+	/**
+	 * Drops the values and events waiting to be pushed, once the thing is unbound for good or replaced by
+	 * a copy on another client.
+	 *
+	 * @return The number of events dropped.
+	 */
+	public int discard() {
+		int dropped = 0;
+		for (Lane lane : lanes) {
+			if (lane != null) {
+				lane.properties.clear();
+				PendingEvent event;
+				while ((event = lane.events.poll()) != null) {
+					dropEvent(event);
+					dropped++;
+				}
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * @return The number of events waiting to be pushed.
+	 */
+	public int getEventDepth() {
+		int depth = 0;
+		for (Lane lane : lanes) {
+			if (lane != null) {
+				depth += lane.events.size();
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * @return The number of properties with a value waiting to be pushed.
+	 */
+	public int getPropertyDepth() {
+		int depth = 0;
+		for (Lane lane : lanes) {
+			if (lane != null) {
+				depth += lane.properties.size();
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * @return The number of events dropped by the overflow policy.
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+
+	public VirtualThing getThing() {
+		return thing;
+	}
+
+	private Lane lane(PriorityClass priority) {
+		Lane lane = lanes[priority.ordinal()];
+		if (lane == null) {
+			synchronized (lanes) {
+				lane = lanes[priority.ordinal()];
+				if (lane == null) {
+					lane = new Lane(priority, eventCapacity);
+					lanes[priority.ordinal()] = lane;
+				}
+			}
+		}
+		return lane;
+	}
+
+	// Schedules a flush in the highest class pending, unless one is already waiting to start in that class or higher
+	private void schedule() {
+		int pending = NOT_SCHEDULED;
+		int cost = 0;
+		for (Lane lane : lanes) {
+			if (lane != null && lane.hasPending()) {
+				pending = Math.min(pending, lane.priority.ordinal());
+				cost += lane.properties.size() + lane.events.size();
+			}
+		}
+		if (pending == NOT_SCHEDULED) {
+			return;
+		}
+
+		int current;
+		do {
+			current = scheduled.get();
+			if (current <= pending) {
+				return;
+			}
+		} while (!scheduled.compareAndSet(current, pending));
+
+		pipeline.schedule(PriorityClass.values()[pending], cost, new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	// Runs on a sender thread; a flush scheduled in a lower class before an upgrade may find nothing left to push
+	private void flush() {
+		synchronized (flushLock) {
+			// Values staged from here on are pushed by this flush or schedule the next one
+			scheduled.set(NOT_SCHEDULED);
+
+			long[] started = new long[lanes.length];
+			boolean pushed = false;
+			try {
+				// Lanes are indexed by class ordinal, the highest class first
+				for (Lane lane : lanes) {
+					if (lane != null && lane.hasPending()) {
+						started[lane.priority.ordinal()] = lane.firstPendingNanos.getAndSet(0);
+						drain(lane);
+						pushed = true;
+					}
+				}
+
+				if (pushed) {
+					thing.updateSubscribedProperties(pipeline.getTimeout());
+					thing.updateSubscribedEvents(pipeline.getTimeout());
+				}
+			} catch (Exception e) {
+				LOG.error("Failed to push the pending updates of {}", thing.getName(), e);
+			}
+
+			long now = System.nanoTime();
+			for (PriorityClass priority : PriorityClass.values()) {
+				if (started[priority.ordinal()] != 0) {
+					pipeline.recordFlush(priority, now - started[priority.ordinal()]);
+				}
+			}
+		}
+	}
+
+	private void drain(Lane lane) throws Exception {
+		for (Map.Entry<String, Object> property : lane.properties.entrySet()) {
+			Object value = lane.properties.remove(property.getKey());
+			if (value != null) {
+				thing.setProperty(property.getKey(), value);
+			}
+		}
+
+		PendingEvent event;
+		while ((event = lane.events.poll()) != null) {
+			if (event.record != null) {
+				thing.queueEvent(event.name, event.time, event.record.toValueCollection());
+				event.record.release();
+			} else {
+				thing.queueEvent(event.name, event.time, event.payload);
+			}
+		}
+	}
+
+	private boolean queue(Lane lane, PendingEvent event) throws InterruptedException {
+		lane.markPending();
+		if (lane.events.offer(event)) {
+			return true;
+		}
+
+		switch (eventPolicy) {
+			case BLOCK:
+				// Make sure a sender is draining the lane before waiting on it
+				schedule();
+				lane.events.put(event);
+				return true;
+			case DROP_NEWEST:
+				dropEvent(event);
+				return false;
+			default:
+				do {
+					PendingEvent oldest = lane.events.poll();
+					if (oldest != null) {
+						dropEvent(oldest);
+					}
+				} while (!lane.events.offer(event));
+				return false;
+		}
+	}
+
+	private void dropEvent(PendingEvent event) {
+		if (event.record != null) {
+			event.record.release();
+		}
+		droppedEvents.incrementAndGet();
+		pipeline.recordDroppedEvent();
+	}
+
+	private static class Lane {
+		final PriorityClass priority;
+		final ConcurrentHashMap<String, Object> properties = new ConcurrentHashMap<String, Object>();
+		final ArrayBlockingQueue<PendingEvent> events;
+		// When the oldest value of the lane that has not been pushed yet was staged, 0 when nothing is pending
+		final AtomicLong firstPendingNanos = new AtomicLong();
+
+		Lane(PriorityClass priority, int eventCapacity) {
+			this.priority = priority;
+			this.events = new ArrayBlockingQueue<PendingEvent>(eventCapacity);
+		}
+
+		boolean hasPending() {
+			return !properties.isEmpty() || !events.isEmpty();
+		}
+
+		void markPending() {
+			firstPendingNanos.compareAndSet(0, System.nanoTime());
+		}
+	}
+
+	private static class PendingEvent {
+		final String name;
+		final DateTime time;
+		final ValueCollection payload;
+		// Set instead of payload for events written through a PayloadSchema
+		final PayloadRecord record;
+
+		PendingEvent(String name, DateTime time, ValueCollection payload, PayloadRecord record) {
+			this.name = name;
+			this.time = time;
+			this.payload = payload;
+			this.record = record;
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.thingworx.sdk.common;
+
+/**
+ * What an {@link OutboundQueue} does when a thing queues an event and its event queue is full.
+ */
+public enum OverflowPolicy {
+	/** Discard the oldest queued event to make room, the scan never waits. */
+	DROP_OLDEST,
+	/** Discard the new event, the scan never waits. */
+	DROP_NEWEST,
+	/** Wait until a sender thread has made room, the scan is throttled to what the server accepts. */
+	BLOCK
+}
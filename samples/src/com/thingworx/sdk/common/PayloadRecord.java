@@ -0,0 +1,116 @@
+package com.thingworx.sdk.common;
+
+import org.joda.time.DateTime;
+
+import com.thingworx.types.BaseTypes;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.structs.Location;
+
+/**
+ * The payload of one event or InfoTable row in the fixed layout of a {@link PayloadSchema}. Numbers,
+ * integers and booleans are kept unboxed; the ValueCollection the SDK needs is only built when the
+ * payload is pushed, on an outbound pipeline sender thread rather than on the scan thread.
+ *
+ * A record is not thread safe. Once handed to OutboundQueue.queueEvent it belongs to the queue, which
+ * returns it to its schema's pool after the event is pushed or dropped.
+ */
+public final class PayloadRecord {
+	private final PayloadSchema schema;
+	private final double[] numbers;
+	private final Object[] objects;
+	private final boolean[] present;
+
+	PayloadRecord(PayloadSchema schema) {
+		this.schema = schema;
+		this.numbers = new double[schema.size()];
+		this.objects = new Object[schema.size()];
+		this.present = new boolean[schema.size()];
+	}
+
+	public PayloadSchema getSchema() {
+		return schema;
+	}
+
+	public PayloadRecord set(PayloadSchema.NumberField field, double value) {
+		numbers[field.ordinal] = value;
+		present[field.ordinal] = true;
+		return this;
+	}
+
+	public PayloadRecord set(PayloadSchema.IntegerField field, int value) {
+		numbers[field.ordinal] = value;
+		present[field.ordinal] = true;
+		return this;
+	}
+
+	public PayloadRecord set(PayloadSchema.BooleanField field, boolean value) {
+		numbers[field.ordinal] = value ? 1d : 0d;
+		present[field.ordinal] = true;
+		return this;
+	}
+
+	public PayloadRecord set(PayloadSchema.StringField field, String value) {
+		return setObject(field.ordinal, value);
+	}
+
+	public PayloadRecord set(PayloadSchema.DateTimeField field, DateTime value) {
+		return setObject(field.ordinal, value);
+	}
+
+	public PayloadRecord set(PayloadSchema.LocationField field, Location value) {
+		return setObject(field.ordinal, value);
+	}
+
+	/**
+	 * Unsets every field, so the record can be written again.
+	 */
+	public void clear() {
+		for (int ordinal = 0; ordinal < present.length; ordinal++) {
+			present[ordinal] = false;
+			objects[ordinal] = null;
+		}
+	}
+
+	/**
+	 * Clears the record and returns it to its schema's pool. The record must not be used afterwards.
+	 */
+	public void release() {
+		clear();
+		schema.release(this);
+	}
+
+	/**
+	 * @return The fields that were set, as the ValueCollection the SDK expects for an event or InfoTable row.
+	 */
+	public ValueCollection toValueCollection() {
+		ValueCollection values = new ValueCollection();
+		for (int ordinal = 0; ordinal < present.length; ordinal++) {
+			if (!present[ordinal]) {
+				continue;
+			}
+
+			String name = schema.getFieldName(ordinal);
+			BaseTypes type = schema.getFieldType(ordinal);
+			if (type == BaseTypes.NUMBER) {
+				values.SetNumberValue(name, numbers[ordinal]);
+			} else if (type == BaseTypes.INTEGER) {
+				values.SetIntegerValue(name, (int) numbers[ordinal]);
+			} else if (type == BaseTypes.BOOLEAN) {
+				values.SetBooleanValue(name, numbers[ordinal] != 0d);
+			} else if (type == BaseTypes.STRING) {
+				values.SetStringValue(name, objects[ordinal]);
+			} else if (type == BaseTypes.DATETIME) {
+				values.SetDateTimeValue(name, objects[ordinal]);
+			} else if (type == BaseTypes.LOCATION) {
+				values.SetLocationValue(name, objects[ordinal]);
+			}
+		}
+		return values;
+	}
+
+	private PayloadRecord setObject(int ordinal, Object value) {
+		objects[ordinal] = value;
+		present[ordinal] = true;
+		return this;
+	}
+}
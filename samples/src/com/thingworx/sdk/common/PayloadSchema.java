@@ -0,0 +1,194 @@
+package com.thingworx.sdk.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.thingworx.metadata.DataShapeDefinition;
+import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.metadata.collections.FieldDefinitionCollection;
+import com.thingworx.types.BaseTypes;
+
+/**
+ * A fixed layout for the payloads of one DataShape, built once from its field definitions.
+ *
+ * Looking a field up by name and checking its base type happens once, when a typed field handle is
+ * obtained; the handles are then kept in constants and {@link PayloadRecord}s are written by ordinal,
+ * without hashing field names or boxing numbers. Records are pooled, so a steady stream of events of
+ * the same shape does not allocate a record per event.
+ */
+public class PayloadSchema {
+	private final static int MAX_POOLED_RECORDS = 1024;
+
+	private final String name;
+	private final String[] fieldNames;
+	private final BaseTypes[] fieldTypes;
+
+	private final ConcurrentLinkedQueue<PayloadRecord> pool = new ConcurrentLinkedQueue<PayloadRecord>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	private PayloadSchema(String name, List<FieldDefinition> fields) {
+		this.name = name;
+		this.fieldNames = new String[fields.size()];
+		this.fieldTypes = new BaseTypes[fields.size()];
+		for (int ordinal = 0; ordinal < fields.size(); ordinal++) {
+			fieldNames[ordinal] = fields.get(ordinal).getName();
+			fieldTypes[ordinal] = fields.get(ordinal).getBaseType();
+		}
+	}
+
+	/**
+	 * @param name The name of the DataShape, used in error messages.
+	 * @param shape The definition of the DataShape, as returned by VirtualThing.getDataShapeDefinition.
+	 * @return The layout of the DataShape's payloads.
+	 */
+	public static PayloadSchema of(String name, DataShapeDefinition shape) {
+		if (shape == null) {
+			throw new IllegalArgumentException("DataShape " + name + " is not defined");
+		}
+		return of(name, shape.getFields());
+	}
+
+	/**
+	 * @param name The name of the DataShape, used in error messages.
+	 * @param fields The field definitions of the DataShape.
+	 * @return The layout of the DataShape's payloads.
+	 */
+	public static PayloadSchema of(String name, FieldDefinitionCollection fields) {
+		List<FieldDefinition> ordered = new ArrayList<FieldDefinition>(fields.values());
+		// The collection is a hash map, order the fields by name so that the layout is the same on every run
+		Collections.sort(ordered, new Comparator<FieldDefinition>() {
+			@Override
+			public int compare(FieldDefinition left, FieldDefinition right) {
+				return left.getName().compareTo(right.getName());
+			}
+		});
+		return new PayloadSchema(name, ordered);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int size() {
+		return fieldNames.length;
+	}
+
+	public NumberField numberField(String field) {
+		return new NumberField(ordinal(field, BaseTypes.NUMBER));
+	}
+
+	public IntegerField integerField(String field) {
+		return new IntegerField(ordinal(field, BaseTypes.INTEGER));
+	}
+
+	public BooleanField booleanField(String field) {
+		return new BooleanField(ordinal(field, BaseTypes.BOOLEAN));
+	}
+
+	public StringField stringField(String field) {
+		return new StringField(ordinal(field, BaseTypes.STRING));
+	}
+
+	public DateTimeField dateTimeField(String field) {
+		return new DateTimeField(ordinal(field, BaseTypes.DATETIME));
+	}
+
+	public LocationField locationField(String field) {
+		return new LocationField(ordinal(field, BaseTypes.LOCATION));
+	}
+
+	/**
+	 * @return An empty record, from the pool if one is available. Hand it to OutboundQueue.queueEvent,
+	 * or call {@link PayloadRecord#release()} when done with it.
+	 */
+	public PayloadRecord acquire() {
+		PayloadRecord record = pool.poll();
+		if (record == null) {
+			return new PayloadRecord(this);
+		}
+		pooled.decrementAndGet();
+		return record;
+	}
+
+	void release(PayloadRecord record) {
+		if (pooled.incrementAndGet() <= MAX_POOLED_RECORDS) {
+			pool.offer(record);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+
+	String getFieldName(int ordinal) {
+		return fieldNames[ordinal];
+	}
+
+	BaseTypes getFieldType(int ordinal) {
+		return fieldTypes[ordinal];
+	}
+
+	private int ordinal(String field, BaseTypes type) {
+		for (int ordinal = 0; ordinal < fieldNames.length; ordinal++) {
+			if (fieldNames[ordinal].equals(field)) {
+				if (fieldTypes[ordinal] != type) {
+					throw new IllegalArgumentException("Field " + field + " of " + name + " is a " + fieldTypes[ordinal] + ", not a " + type);
+				}
+				return ordinal;
+			}
+		}
+		throw new IllegalArgumentException(name + " has no field " + field);
+	}
+
+	// Typed field handles, obtained once and then used to write records without any lookup
+
+	public static final class NumberField {
+		final int ordinal;
+
+		NumberField(int ordinal) {
+			this.ordinal = ordinal;
+		}
+	}
+
+	public static final class IntegerField {
+		final int ordinal;
+
+		IntegerField(int ordinal) {
+			this.ordinal = ordinal;
+		}
+	}
+
+	public static final class BooleanField {
+		final int ordinal;
+
+		BooleanField(int ordinal) {
+			this.ordinal = ordinal;
+		}
+	}
+
+	public static final class StringField {
+		final int ordinal;
+
+		StringField(int ordinal) {
+			this.ordinal = ordinal;
+		}
+	}
+
+	public static final class DateTimeField {
+		final int ordinal;
+
+		DateTimeField(int ordinal) {
+			this.ordinal = ordinal;
+		}
+	}
+
+	public static final class LocationField {
+		final int ordinal;
+
+		LocationField(int ordinal) {
+			this.ordinal = ordinal;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.thingworx.sdk.common;
+
+/**
+ * The priority lanes of the outbound path, see {@link PriorityScheduler}. Each class gets a share of the
+ * sender threads proportional to its weight while several classes have traffic waiting.
+ */
+public enum PriorityClass {
+	/** Events that must reach the server promptly, such as DeliveryStop or alerts. */
+	CRITICAL(8),
+	/** Regular property updates and events. */
+	NORMAL(3),
+	/** High volume telemetry and large payloads, such as Speed readings. */
+	BULK(1);
+
+	private final int defaultWeight;
+
+	private PriorityClass(int defaultWeight) {
+		this.defaultWeight = defaultWeight;
+	}
+
+	/**
+	 * @return The weight of the class. Run with -Doutbound.weight.<CLASS>=n to change it.
+	 */
+	public int getWeight() {
+		return Math.max(1, Integer.getInteger("outbound.weight." + name(), defaultWeight));
+	}
+}
@@ -0,0 +1,37 @@
+package com.thingworx.sdk.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Declares the {@link PriorityClass} of the events and properties of one type of thing, by
+ * name. Anything not declared is {@link PriorityClass#NORMAL}. A thing type declares its traffic once,
+ * typically in a static field, and hands it to {@link OutboundPipeline#register} for each of its things,
+ * so two types may give the same name different classes.
+ */
+public class PriorityClasses {
+	private final ConcurrentHashMap<String, PriorityClass> events = new ConcurrentHashMap<String, PriorityClass>();
+	private final ConcurrentHashMap<String, PriorityClass> properties = new ConcurrentHashMap<String, PriorityClass>();
+
+	public PriorityClasses declareEvent(String event, PriorityClass priority) {
+		events.put(event, priority);
+		return this;
+	}
+
+	public PriorityClasses declareProperty(String property, PriorityClass priority) {
+		properties.put(property, priority);
+		return this;
+	}
+
+	public PriorityClass ofEvent(String event) {
+		return lookup(events, event);
+	}
+
+	public PriorityClass ofProperty(String property) {
+		return lookup(properties, property);
+	}
+
+	private static PriorityClass lookup(ConcurrentHashMap<String, PriorityClass> declared, String name) {
+		PriorityClass priority = declared.get(name);
+		return priority != null ? priority : PriorityClass.NORMAL;
+	}
+}
@@ -0,0 +1,225 @@
+package com.thingworx.sdk.common;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a fixed set of threads, choosing among the {@link PriorityClass} lanes by weighted
+ * fair queuing: while several lanes have tasks waiting, each is served in proportion to its weight,
+ * and a lane that was idle does not build up credit it could later use to crowd the others out.
+ * Tasks of the same lane run in the order they were submitted.
+ *
+ * Low weights alone could delay a lane indefinitely under sustained higher priority load, so a task
+ * that has waited longer than the maximum wait runs next whatever its lane.
+ *
+ * The time from submission until a task completes is recorded per lane.
+ */
+public class PriorityScheduler {
+	private static final Logger LOG = LoggerFactory.getLogger(PriorityScheduler.class);
+
+	// Stride scheduling: a lane's pass advances by STRIDE / weight for every unit of cost it is served
+	private final static long STRIDE = 1L << 20;
+
+	private final PriorityClass[] classes = PriorityClass.values();
+	private final Lane[] lanes = new Lane[classes.length];
+	private final long maxWaitNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final Thread[] workers;
+	// Guarded by lock
+	private long globalPass;
+	private int waiting;
+	private boolean shutdown;
+
+	/**
+	 * @param name A name for the threads.
+	 * @param threads The number of threads running the tasks.
+	 * @param maxWaitMillis The longest a task waits before it runs ahead of its lane's share.
+	 */
+	public PriorityScheduler(String name, int threads, long maxWaitMillis) {
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		for (PriorityClass priority : classes) {
+			lanes[priority.ordinal()] = new Lane(priority.getWeight());
+		}
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.workers = new Thread[threads];
+		for (int index = 0; index < threads; index++) {
+			workers[index] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, name + "-" + threadCount.incrementAndGet());
+			workers[index].setDaemon(true);
+			workers[index].start();
+		}
+	}
+
+	/**
+	 * @param priority The lane of the task.
+	 * @param cost The relative size of the task, at least 1; a lane's share is measured in cost, not in tasks.
+	 * @param task The task.
+	 */
+	public void execute(PriorityClass priority, int cost, Runnable task) {
+		lock.lock();
+		try {
+			if (shutdown) {
+				throw new IllegalStateException("The scheduler is shut down");
+			}
+			Lane lane = lanes[priority.ordinal()];
+			if (lane.tasks.isEmpty()) {
+				// A lane coming back from idle starts level with the lanes being served
+				lane.pass = Math.max(lane.pass, globalPass);
+			}
+			lane.tasks.addLast(new Task(task, Math.max(1, cost), System.nanoTime()));
+			waiting++;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param priority A lane.
+	 * @return The time from submission until completion of the lane's tasks.
+	 */
+	public LatencyHistogram getLatency(PriorityClass priority) {
+		return lanes[priority.ordinal()].latency;
+	}
+
+	/**
+	 * @param priority A lane.
+	 * @return The number of the lane's tasks that ran ahead of their share because they waited too long.
+	 */
+	public long getPromotions(PriorityClass priority) {
+		lock.lock();
+		try {
+			return lanes[priority.ordinal()].promotions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of tasks waiting to run.
+	 */
+	public int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the threads once the tasks already submitted have run.
+	 */
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	private void work() {
+		while (true) {
+			Task task;
+			Lane lane;
+			lock.lock();
+			try {
+				while (waiting == 0) {
+					if (shutdown) {
+						return;
+					}
+					available.awaitUninterruptibly();
+				}
+				lane = next();
+				task = lane.tasks.pollFirst();
+				waiting--;
+				lane.pass += STRIDE / lane.weight * task.cost;
+				globalPass = Math.max(globalPass, minimumPass());
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				task.runnable.run();
+			} catch (RuntimeException e) {
+				LOG.error("An outbound task failed", e);
+			}
+			lane.latency.record(System.nanoTime() - task.submittedNanos);
+		}
+	}
+
+	// The lane whose head waited too long, oldest first, otherwise the waiting lane with the lowest pass
+	private Lane next() {
+		long now = System.nanoTime();
+		Lane starved = null;
+		Lane fairest = null;
+		for (Lane lane : lanes) {
+			Task head = lane.tasks.peekFirst();
+			if (head == null) {
+				continue;
+			}
+			if (now - head.submittedNanos > maxWaitNanos
+					&& (starved == null || head.submittedNanos < starved.tasks.peekFirst().submittedNanos)) {
+				starved = lane;
+			}
+			if (fairest == null || lane.pass < fairest.pass) {
+				fairest = lane;
+			}
+		}
+		if (starved != null && starved != fairest) {
+			starved.promotions++;
+			return starved;
+		}
+		return fairest;
+	}
+
+	private long minimumPass() {
+		long minimum = Long.MAX_VALUE;
+		for (Lane lane : lanes) {
+			if (!lane.tasks.isEmpty()) {
+				minimum = Math.min(minimum, lane.pass);
+			}
+		}
+		return minimum == Long.MAX_VALUE ? globalPass : minimum;
+	}
+
+	private static final class Lane {
+		final int weight;
+		final ArrayDeque<Task> tasks = new ArrayDeque<Task>();
+		final LatencyHistogram latency = new LatencyHistogram();
+		long pass;
+		long promotions;
+
+		Lane(int weight) {
+			this.weight = weight;
+		}
+	}
+
+	private static final class Task {
+		final Runnable runnable;
+		final int cost;
+		final long submittedNanos;
+
+		Task(Runnable runnable, int cost, long submittedNanos) {
+			this.runnable = runnable;
+			this.cost = cost;
+			this.submittedNanos = submittedNanos;
+		}
+	}
+}
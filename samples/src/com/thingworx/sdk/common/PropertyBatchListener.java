@@ -0,0 +1,18 @@
+package com.thingworx.sdk.common;
+
+import java.util.Map;
+
+import com.thingworx.types.primitives.IPrimitiveType;
+
+/**
+ * Receives the property writes that a {@link PropertyWriteCoalescer} grouped together.
+ */
+public interface PropertyBatchListener {
+	/**
+	 * Called once per batch, on the coalescer's thread. Implementations should apply the whole batch
+	 * atomically with respect to the rest of the thing's logic.
+	 *
+	 * @param values The latest value of every property written during the window, in first-written order.
+	 */
+	void propertiesChanged(Map<String, IPrimitiveType> values);
+}
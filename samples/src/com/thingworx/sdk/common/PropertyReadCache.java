@@ -0,0 +1,342 @@
+package com.thingworx.sdk.common;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thingworx.communications.client.ConnectedThingClient;
+import com.thingworx.communications.client.things.VirtualThing;
+import com.thingworx.communications.client.things.VirtualThingPropertyChangeEvent;
+import com.thingworx.communications.client.things.VirtualThingPropertyChangeListener;
+import com.thingworx.relationships.RelationshipTypes.ThingworxEntityTypes;
+import com.thingworx.types.InfoTable;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.constants.Aspects;
+import com.thingworx.types.primitives.IPrimitiveType;
+
+/**
+ * A read-through cache in front of ConnectedThingClient.readProperty, for clients that poll the same
+ * remote properties over and over.
+ *
+ * A value is served from the cache for the cache time of its property: the time set with
+ * {@link #setCacheTime}, or else the cacheTime aspect of the property's definition on the server, read
+ * once per property, or else the default. A cache time of 0 disables caching for the property. Values
+ * are dropped as soon as a change is pushed to the thing they were read from, when that thing is bound
+ * to the client and subscribed, see {@link #subscribe(VirtualThing)}, or written through {@link #write}. Concurrent reads of a value that is not cached share a single round
+ * trip to the server. The cache holds at most a fixed number of values and evicts the least recently
+ * read one first.
+ *
+ * The InfoTables returned are shared between callers and must not be modified.
+ */
+public class PropertyReadCache {
+	private static final Logger LOG = LoggerFactory.getLogger(PropertyReadCache.class);
+
+	private static final String GET_PROPERTY_DEFINITION = "GetPropertyDefinition";
+	// The aspects of a definition may come back as JSON text
+	private static final Pattern CACHE_TIME_JSON = Pattern.compile("\"" + Aspects.ASPECT_CACHETIME + "\"\\s*:\\s*\"?(-?[0-9.]+)");
+
+	private final ConnectedThingClient client;
+	private final long defaultCacheTimeMillis;
+	// Set by setCacheTime, or read from the property definitions
+	private final Map<String, Long> cacheTimes = new ConcurrentHashMap<String, Long>();
+
+	// Guarded by this
+	private final LinkedHashMap<Key, Entry> entries;
+	private final Map<Key, Load> loading = new HashMap<Key, Load>();
+	private long hits;
+	private long misses;
+	private long coalesced;
+	private long evictions;
+	private long invalidations;
+
+	private final VirtualThingPropertyChangeListener invalidator = new VirtualThingPropertyChangeListener() {
+		@Override
+		public void propertyChangeEventReceived(VirtualThingPropertyChangeEvent event) {
+			invalidate(ThingworxEntityTypes.Things, event.getSource().getName(), event.getPropertyDefinition().getName());
+		}
+	};
+
+	/**
+	 * @param client The client reading the properties.
+	 * @param maxEntries The most values the cache holds.
+	 * @param defaultCacheTimeMillis How long values are served from the cache, unless set per property or
+	 * by the property's definition.
+	 */
+	public PropertyReadCache(ConnectedThingClient client, final int maxEntries, long defaultCacheTimeMillis) {
+		this.client = client;
+		this.defaultCacheTimeMillis = defaultCacheTimeMillis;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() > maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param thing The name of the thing.
+	 * @param property The name of the property.
+	 * @param cacheTimeMillis How long values of the property are served from the cache, 0 to never cache them.
+	 */
+	public void setCacheTime(String thing, String property, long cacheTimeMillis) {
+		cacheTimes.put(thing + '.' + property, cacheTimeMillis);
+	}
+
+	/**
+	 * Reads a property, from the cache if a fresh value is there.
+	 *
+	 * @see ConnectedThingClient#readProperty
+	 */
+	public InfoTable read(ThingworxEntityTypes type, String thing, String property, int timeout) throws Exception {
+		Key key = new Key(type, thing, property);
+		Load load;
+		boolean owner = false;
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expiresNanos - System.nanoTime() > 0) {
+				hits++;
+				return entry.value;
+			}
+
+			load = loading.get(key);
+			if (load != null) {
+				coalesced++;
+			} else {
+				misses++;
+				load = new Load();
+				loading.put(key, load);
+				owner = true;
+			}
+		}
+
+		if (!owner) {
+			return load.await(timeout);
+		}
+
+		InfoTable value;
+		try {
+			value = client.readProperty(type, thing, property, timeout);
+		} catch (Exception e) {
+			synchronized (this) {
+				loading.remove(key);
+			}
+			load.fail(e);
+			throw e;
+		}
+
+		long cacheTime = getCacheTime(type, thing, property, timeout);
+		synchronized (this) {
+			loading.remove(key);
+			// A change pushed while the value was on its way makes the value stale already
+			if (!load.invalidated && cacheTime > 0) {
+				entries.put(key, new Entry(value, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cacheTime)));
+			}
+		}
+		load.complete(value);
+		return value;
+	}
+
+	/**
+	 * Writes a property and drops its cached value.
+	 *
+	 * @see ConnectedThingClient#writeProperty
+	 */
+	public void write(ThingworxEntityTypes type, String thing, String property, IPrimitiveType value, int timeout) throws Exception {
+		try {
+			client.writeProperty(type, thing, property, value, timeout);
+		} finally {
+			invalidate(type, thing, property);
+		}
+	}
+
+	/**
+	 * Drops the cached value of a property, and keeps a read already in flight from caching its result.
+	 */
+	public synchronized void invalidate(ThingworxEntityTypes type, String thing, String property) {
+		Key key = new Key(type, thing, property);
+		if (entries.remove(key) != null) {
+			invalidations++;
+		}
+		Load load = loading.get(key);
+		if (load != null) {
+			load.invalidated = true;
+		}
+	}
+
+	/**
+	 * Drops the cached values of a thing's properties whenever a change to them is pushed to the thing.
+	 * Only the values read from this thing, by its name, are dropped.
+	 *
+	 * @param thing A thing bound to the client, whose properties are read through the cache.
+	 */
+	public void subscribe(VirtualThing thing) {
+		thing.addPropertyChangeListener(invalidator);
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of reads that waited for another read of the same property instead of making their own.
+	 */
+	public synchronized long getCoalescedReads() {
+		return coalesced;
+	}
+
+	/**
+	 * @return The number of round trips to the server the cache saved, cache hits and coalesced reads.
+	 */
+	public synchronized long getRoundTripsAvoided() {
+		return hits + coalesced;
+	}
+
+	/**
+	 * @return The share of reads served from the cache, between 0 and 1.
+	 */
+	public synchronized double getHitRatio() {
+		long reads = hits + misses + coalesced;
+		return reads == 0 ? 0d : (double) hits / reads;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	// Reads the cacheTime aspect of the property the first time, unless it was set
+	private long getCacheTime(ThingworxEntityTypes type, String thing, String property, int timeout) {
+		String name = thing + '.' + property;
+		Long cacheTime = cacheTimes.get(name);
+		if (cacheTime != null) {
+			return cacheTime;
+		}
+
+		long defined = defaultCacheTimeMillis;
+		try {
+			ValueCollection params = new ValueCollection();
+			params.SetStringValue("propertyName", property);
+			InfoTable definition = client.invokeService(type, thing, GET_PROPERTY_DEFINITION, params, timeout);
+			Long aspect = definition != null && definition.getRowCount() > 0 ? parseCacheTime(definition.getFirstRow().getValue("aspects"))
+					: null;
+			if (aspect != null) {
+				defined = aspect;
+			}
+		} catch (Exception e) {
+			LOG.warn("Could not read the definition of {}, caching it for {} ms", name, defaultCacheTimeMillis, e);
+		}
+		Long previous = cacheTimes.putIfAbsent(name, defined);
+		return previous != null ? previous : defined;
+	}
+
+	// The cacheTime aspect is in seconds, a negative one leaves the default
+	private static Long parseCacheTime(Object aspects) {
+		Object value = null;
+		if (aspects instanceof ValueCollection) {
+			value = ((ValueCollection) aspects).getValue(Aspects.ASPECT_CACHETIME);
+		} else if (aspects != null) {
+			Matcher matcher = CACHE_TIME_JSON.matcher(aspects.toString());
+			if (matcher.find()) {
+				value = matcher.group(1);
+			}
+		}
+		if (value == null) {
+			return null;
+		}
+		double seconds = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+		return seconds < 0 ? null : Long.valueOf((long) (seconds * 1000d));
+	}
+
+	private static final class Key {
+		final ThingworxEntityTypes type;
+		final String thing;
+		final String property;
+		final int hash;
+
+		Key(ThingworxEntityTypes type, String thing, String property) {
+			this.type = type;
+			this.thing = thing;
+			this.property = property;
+			this.hash = (type.hashCode() * 31 + thing.hashCode()) * 31 + property.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return type == key.type && thing.equals(key.thing) && property.equals(key.property);
+		}
+	}
+
+	private static final class Entry {
+		final InfoTable value;
+		final long expiresNanos;
+
+		Entry(InfoTable value, long expiresNanos) {
+			this.value = value;
+			this.expiresNanos = expiresNanos;
+		}
+	}
+
+	// A read in flight, that the reads of the same property arriving meanwhile wait for
+	private static final class Load {
+		final CountDownLatch done = new CountDownLatch(1);
+		// Guarded by the cache
+		boolean invalidated;
+		private volatile InfoTable value;
+		private volatile Exception failure;
+
+		InfoTable await(int timeout) throws Exception {
+			if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+				throw new TimeoutException("The read of the property did not complete within " + timeout + "ms");
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return value;
+		}
+
+		void complete(InfoTable result) {
+			value = result;
+			done.countDown();
+		}
+
+		void fail(Exception e) {
+			failure = e;
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.thingworx.sdk.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thingworx.communications.client.things.VirtualThingPropertyChangeEvent;
+import com.thingworx.communications.client.things.VirtualThingPropertyChangeListener;
+import com.thingworx.types.primitives.IPrimitiveType;
+
+/**
+ * Groups the property writes a thing receives within a short window and hands them to a
+ * {@link PropertyBatchListener} as a single batch. A property written several times in the window
+ * only appears once in the batch, with its last value.
+ *
+ * Register one coalescer per thing with VirtualThing.addPropertyChangeListener in place of the thing's
+ * own listener. The SDK thread that delivers a write only records it and returns; batches are applied
+ * on a shared scheduler thread.
+ */
+public class PropertyWriteCoalescer implements VirtualThingPropertyChangeListener {
+	private static final Logger LOG = LoggerFactory.getLogger(PropertyWriteCoalescer.class);
+
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "PropertyWriteCoalescer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final PropertyBatchListener listener;
+	private final long windowMillis;
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private final Object lock = new Object();
+	private LinkedHashMap<String, IPrimitiveType> pending = new LinkedHashMap<String, IPrimitiveType>();
+	private long firstWriteNanos;
+
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong collapsed = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+	/**
+	 * @param listener Receives the batches, usually the thing itself.
+	 * @param windowMillis How long to wait after the first write of a batch before applying it.
+	 */
+	public PropertyWriteCoalescer(PropertyBatchListener listener, long windowMillis) {
+		this.listener = listener;
+		this.windowMillis = windowMillis;
+	}
+
+	@Override
+	public void propertyChangeEventReceived(VirtualThingPropertyChangeEvent event) {
+		offer(event.getPropertyDefinition().getName(), event.getPrimitiveValue());
+	}
+
+	/**
+	 * Records a property write, it will be applied with the next batch.
+	 *
+	 * @param property The name of the property.
+	 * @param value The new value.
+	 */
+	public void offer(String property, IPrimitiveType value) {
+		writes.incrementAndGet();
+		synchronized (lock) {
+			if (pending.isEmpty()) {
+				firstWriteNanos = System.nanoTime();
+				SCHEDULER.schedule(flushTask, windowMillis, TimeUnit.MILLISECONDS);
+			}
+			// Re-inserting an existing key keeps its position, so the batch stays in first-written order
+			if (pending.put(property, value) != null) {
+				collapsed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Applies the pending writes now, without waiting for the window to close.
+	 */
+	public void flush() {
+		Map<String, IPrimitiveType> batch;
+		long started;
+		synchronized (lock) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			batch = pending;
+			started = firstWriteNanos;
+			pending = new LinkedHashMap<String, IPrimitiveType>();
+		}
+
+		try {
+			listener.propertiesChanged(batch);
+		} catch (Exception e) {
+			LOG.error("Failed to apply a batch of {} property writes.", batch.size(), e);
+		}
+
+		long latency = System.nanoTime() - started;
+		batches.incrementAndGet();
+		totalLatencyNanos.addAndGet(latency);
+		long max = maxLatencyNanos.get();
+		while (latency > max && !maxLatencyNanos.compareAndSet(max, latency)) {
+			max = maxLatencyNanos.get();
+		}
+	}
+
+	/**
+	 * @return The number of property writes received.
+	 */
+	public long getWriteCount() {
+		return writes.get();
+	}
+
+	/**
+	 * @return The number of writes that were replaced by a later write to the same property.
+	 */
+	public long getCollapsedCount() {
+		return collapsed.get();
+	}
+
+	/**
+	 * @return The number of batch callbacks made, compared to {@link #getWriteCount()} single callbacks without coalescing.
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/**
+	 * @return The average time from the first write of a batch until the batch was applied, in microseconds.
+	 */
+	public double getAverageApplyLatencyMicros() {
+		long count = batches.get();
+		return count == 0 ? 0d : totalLatencyNanos.get() / 1000d / count;
+	}
+
+	/**
+	 * @return The longest time from the first write of a batch until the batch was applied, in microseconds.
+	 */
+	public double getMaxApplyLatencyMicros() {
+		return maxLatencyNanos.get() / 1000d;
+	}
+}
@@ -0,0 +1,312 @@
+package com.thingworx.sdk.common;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the services the platform invokes on one thing, isolating them from each other. Every service
+ * runs on its own executor, shared with the same service of every other thing, see {@link ServicePools},
+ * and has its own limits on this thing: at most {@link ServiceLimits#getConcurrency()} invocations run at
+ * a time and at most {@link ServiceLimits#getQueueLimit()} more wait for a slot. An invocation beyond
+ * that is rejected immediately, one still waiting after {@link ServiceLimits#getQueueTimeoutMillis()} is
+ * rejected as well, and a caller stops waiting after the service's timeout, so the platform gets a fast
+ * error instead of an SDK timeout and one slow service cannot tie up the threads that deliver every
+ * other request and the scans.
+ *
+ * Invocations waiting for one of the thing's slots wait in a queue of the executor and are handed to the
+ * shared pool as running invocations complete, so they never hold a thread of the pool, and the caller's
+ * thread is only held for the short queue timeout. The limits cost a pair of semaphores and a queue per
+ * service and thing.
+ */
+public class ServiceExecutor {
+	private static final Logger LOG = LoggerFactory.getLogger(ServiceExecutor.class);
+
+	private final String name;
+	private final ServiceLimits defaultLimits;
+	private final ServicePools pools;
+	private final Map<String, ServiceLimits> limits = new ConcurrentHashMap<String, ServiceLimits>();
+	private final Map<String, Service> services = new ConcurrentHashMap<String, Service>();
+	// Invocations submitted and not completed yet, interrupted by shutdown
+	private final Set<Invocation<?>> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Invocation<?>, Boolean>());
+	private volatile boolean shutdown;
+
+	/**
+	 * @param name The name of the thing the services belong to.
+	 * @param defaultLimits The limits of services that were not configured.
+	 */
+	public ServiceExecutor(String name, ServiceLimits defaultLimits) {
+		this(name, defaultLimits, ServicePools.shared());
+	}
+
+	/**
+	 * @param name The name of the thing the services belong to.
+	 * @param defaultLimits The limits of services that were not configured.
+	 * @param pools The executors the services run on.
+	 */
+	public ServiceExecutor(String name, ServiceLimits defaultLimits, ServicePools pools) {
+		this.name = name;
+		this.defaultLimits = defaultLimits;
+		this.pools = pools;
+	}
+
+	/**
+	 * Sets the limits of a service. Must be called before the service is first invoked.
+	 *
+	 * @param service The name of the service.
+	 * @param serviceLimits The limits of the service.
+	 */
+	public void configure(String service, ServiceLimits serviceLimits) {
+		if (services.containsKey(service)) {
+			throw new IllegalStateException("Service " + service + " was already invoked");
+		}
+		limits.put(service, serviceLimits);
+	}
+
+	/**
+	 * @param service The name of the service.
+	 * @return The limits the service runs with.
+	 */
+	public ServiceLimits getLimits(String service) {
+		ServiceLimits serviceLimits = limits.get(service);
+		return serviceLimits != null ? serviceLimits : defaultLimits;
+	}
+
+	/**
+	 * Runs a service invocation within the limits of the service, and waits for its result.
+	 *
+	 * @param service The name of the service.
+	 * @param call The body of the service.
+	 * @return The result of the service.
+	 * @throws RejectedExecutionException If the service is running and queueing as many invocations as it may,
+	 * or the executor was shut down.
+	 * @throws TimeoutException If the service did not complete within its timeout.
+	 * @throws Exception The exception thrown by the service itself.
+	 */
+	public <T> T invoke(String service, final Callable<T> call) throws Exception {
+		final Service target = getService(service);
+		if (shutdown) {
+			throw new RejectedExecutionException("The services of " + name + " are shut down");
+		}
+		if (!target.admission.tryAcquire()) {
+			target.rejected.incrementAndGet();
+			throw new RejectedExecutionException("Service " + service + " on " + name + " is busy, try again later");
+		}
+
+		final long submitted = System.nanoTime();
+		long deadline = submitted + TimeUnit.MILLISECONDS.toNanos(target.limits.getTimeoutMillis());
+		// From here on the invocation releases its slots when it completes, or is withdrawn or cancelled before it starts
+		Invocation<T> invocation = new Invocation<T>(target, new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				long started = System.nanoTime();
+				target.pool.queueLatency.record(started - submitted);
+				try {
+					return call.call();
+				} finally {
+					target.pool.executionLatency.record(System.nanoTime() - started);
+				}
+			}
+		});
+		inFlight.add(invocation);
+		if (shutdown) {
+			inFlight.remove(invocation);
+			target.admission.release();
+			throw new RejectedExecutionException("The services of " + name + " are shut down");
+		}
+		target.pending.add(invocation);
+		dispatch(target);
+
+		try {
+			try {
+				return invocation.get(target.limits.getQueueTimeoutMillis(), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				if (invocation.withdraw()) {
+					target.rejected.incrementAndGet();
+					throw new RejectedExecutionException("Service " + service + " on " + name + " is busy, try again later");
+				}
+			}
+			// The invocation has started, the caller waits for the rest of the service's timeout
+			return invocation.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			// The invocation keeps its slots until it completes, so a hung service eventually rejects callers
+			throw timedOut(service, target);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Rejects further invocations and interrupts the running ones, when the thing is dropped or moved to
+	 * another client. The shared executors keep running the services of the other things.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for (Invocation<?> invocation : inFlight) {
+			invocation.cancel(true);
+		}
+	}
+
+	/**
+	 * @param service The name of the service.
+	 * @return The time invocations of the service waited for a slot, across all the things sharing its executor.
+	 */
+	public LatencyHistogram getQueueLatency(String service) {
+		return getService(service).pool.queueLatency;
+	}
+
+	/**
+	 * @param service The name of the service.
+	 * @return The time invocations of the service took to execute, across all the things sharing its executor.
+	 */
+	public LatencyHistogram getExecutionLatency(String service) {
+		return getService(service).pool.executionLatency;
+	}
+
+	/**
+	 * @param service The name of the service.
+	 * @return The number of invocations on this thing rejected because the service was busy.
+	 */
+	public long getRejectedCount(String service) {
+		return getService(service).rejected.get();
+	}
+
+	/**
+	 * @param service The name of the service.
+	 * @return The number of invocations on this thing whose caller gave up waiting.
+	 */
+	public long getTimedOutCount(String service) {
+		return getService(service).timedOut.get();
+	}
+
+	/**
+	 * Logs the latencies and rejections of every service invoked so far.
+	 */
+	public void logStatistics() {
+		for (Map.Entry<String, Service> entry : services.entrySet()) {
+			Service service = entry.getValue();
+			LOG.info("{}.{}: queue [{}] execution [{}] rejected={} timedOut={}", name, entry.getKey(),
+					service.pool.queueLatency, service.pool.executionLatency, service.rejected.get(), service.timedOut.get());
+		}
+	}
+
+	// Hands waiting invocations to the shared executor while the service has a free running slot
+	private void dispatch(Service target) {
+		while (!target.pending.isEmpty() && target.running.tryAcquire()) {
+			Invocation<?> next = target.pending.poll();
+			if (next == null) {
+				target.running.release();
+				continue;
+			}
+			try {
+				target.pool.executor.execute(next);
+			} catch (RejectedExecutionException e) {
+				next.cancel(false);
+				next.release();
+			}
+		}
+	}
+
+	private TimeoutException timedOut(String service, Service target) {
+		target.timedOut.incrementAndGet();
+		return new TimeoutException("Service " + service + " on " + name + " did not complete within "
+				+ target.limits.getTimeoutMillis() + "ms");
+	}
+
+	private Service getService(String service) {
+		Service target = services.get(service);
+		if (target == null) {
+			synchronized (services) {
+				target = services.get(service);
+				if (target == null) {
+					target = new Service(getLimits(service), pools.get(service));
+					services.put(service, target);
+				}
+			}
+		}
+		return target;
+	}
+
+	private static class Service {
+		final ServiceLimits limits;
+		final ServicePools.Pool pool;
+		// Permits for the running and the queued invocations together
+		final Semaphore admission;
+		// Permits for the running invocations, taken when an invocation is handed to the executor
+		final Semaphore running;
+		// Invocations admitted and waiting for a running slot
+		final Queue<Invocation<?>> pending = new ConcurrentLinkedQueue<Invocation<?>>();
+		final AtomicLong rejected = new AtomicLong();
+		final AtomicLong timedOut = new AtomicLong();
+
+		Service(ServiceLimits limits, ServicePools.Pool pool) {
+			this.limits = limits;
+			this.pool = pool;
+			this.admission = new Semaphore(limits.getConcurrency() + limits.getQueueLimit());
+			this.running = new Semaphore(limits.getConcurrency());
+		}
+	}
+
+	// Releases the slots of its service from its own run once the service returns, so a cancelled invocation
+	// keeps them until it has actually stopped. One the caller withdrew still releases them here unless it was
+	// taken back from the pending queue.
+	private class Invocation<T> extends FutureTask<T> {
+		private final Service service;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		Invocation(Service service, Callable<T> call) {
+			super(call);
+			this.service = service;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (claimed.compareAndSet(false, true)) {
+					super.run();
+				}
+			} finally {
+				release();
+				dispatch(service);
+			}
+		}
+
+		// Called by the caller when it stopped waiting for the invocation to start
+		boolean withdraw() {
+			if (!claimed.compareAndSet(false, true)) {
+				return false;
+			}
+			cancel(false);
+			if (service.pending.remove(this)) {
+				inFlight.remove(this);
+				service.admission.release();
+			}
+			return true;
+		}
+
+		void release() {
+			inFlight.remove(this);
+			service.running.release();
+			service.admission.release();
+		}
+	}
+}
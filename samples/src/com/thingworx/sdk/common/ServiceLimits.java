@@ -0,0 +1,81 @@
+package com.thingworx.sdk.common;
+
+/**
+ * The isolation limits of a single service in a {@link ServiceExecutor}.
+ */
+public class ServiceLimits {
+	// Run with -Dservices.queueTimeoutMillis=n to change how long invocations wait for a slot by default
+	private final static long DEFAULT_QUEUE_TIMEOUT_MILLIS = Long.getLong("services.queueTimeoutMillis", 500L);
+
+	private final int concurrency;
+	private final int queueLimit;
+	private final long queueTimeoutMillis;
+	private final long timeoutMillis;
+
+	/**
+	 * @param concurrency How many invocations of the service may execute at the same time.
+	 * @param queueLimit How many more invocations may wait for one of those slots before new ones are rejected.
+	 * @param timeoutMillis How long a caller waits for the result before giving up, keep it below the platform's timeout.
+	 */
+	public ServiceLimits(int concurrency, int queueLimit, long timeoutMillis) {
+		this(concurrency, queueLimit, Math.min(DEFAULT_QUEUE_TIMEOUT_MILLIS, timeoutMillis), timeoutMillis);
+	}
+
+	/**
+	 * @param concurrency How many invocations of the service may execute at the same time.
+	 * @param queueLimit How many more invocations may wait for one of those slots before new ones are rejected.
+	 * @param queueTimeoutMillis How long an invocation may wait for a slot before it is rejected.
+	 * @param timeoutMillis How long a caller waits for the result before giving up, keep it below the platform's timeout.
+	 */
+	public ServiceLimits(int concurrency, int queueLimit, long queueTimeoutMillis, long timeoutMillis) {
+		if (concurrency < 1 || queueLimit < 0 || queueTimeoutMillis <= 0 || timeoutMillis < queueTimeoutMillis) {
+			throw new IllegalArgumentException("Invalid service limits");
+		}
+		this.concurrency = concurrency;
+		this.queueLimit = queueLimit;
+		this.queueTimeoutMillis = queueTimeoutMillis;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Reads limits from a system property of the form concurrency,queueLimit,timeoutMillis or
+	 * concurrency,queueLimit,queueTimeoutMillis,timeoutMillis, for example -Dservices.GetBigString=2,4,5000.
+	 *
+	 * @param property The name of the system property.
+	 * @param defaults The limits to use when the property is not set.
+	 * @return The configured limits, or the defaults.
+	 */
+	public static ServiceLimits fromProperty(String property, ServiceLimits defaults) {
+		String value = System.getProperty(property);
+		if (value == null) {
+			return defaults;
+		}
+
+		String[] parts = value.split(",");
+		if (parts.length == 4) {
+			return new ServiceLimits(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+					Long.parseLong(parts[2].trim()), Long.parseLong(parts[3].trim()));
+		}
+		if (parts.length != 3) {
+			throw new IllegalArgumentException(property + " must be concurrency,queueLimit[,queueTimeoutMillis],timeoutMillis");
+		}
+		return new ServiceLimits(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+				Long.parseLong(parts[2].trim()));
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public int getQueueLimit() {
+		return queueLimit;
+	}
+
+	public long getQueueTimeoutMillis() {
+		return queueTimeoutMillis;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+}
@@ -0,0 +1,121 @@
+package com.thingworx.sdk.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The executors service invocations run on, one per service name, shared by every thing that
+ * offers the service. A thing's {@link ServiceExecutor} only keeps the admission limits of its own
+ * services, so the number of threads grows with the number of services, not with the number of things.
+ *
+ * Queue time, from submission until the service starts, and execution time are recorded per service,
+ * across all of the things.
+ */
+public class ServicePools {
+	private static volatile ServicePools shared;
+
+	private final ExecutorFactory factory;
+	private final int defaultThreads;
+	private final Map<String, Integer> threads = new ConcurrentHashMap<String, Integer>();
+	private final Map<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+
+	/**
+	 * @param factory Creates the executor of each service.
+	 * @param defaultThreads The number of threads of a service that was not configured.
+	 */
+	public ServicePools(ExecutorFactory factory, int defaultThreads) {
+		if (defaultThreads < 1) {
+			throw new IllegalArgumentException("At least one thread is required");
+		}
+		this.factory = factory;
+		this.defaultThreads = defaultThreads;
+	}
+
+	/**
+	 * @return The pools shared by all things. Run with -Dservices.virtualThreads=true to run services on
+	 * virtual threads where available, and with -Dservices.poolThreads=n to change the default number of
+	 * threads per service.
+	 */
+	public static ServicePools shared() {
+		ServicePools result = shared;
+		if (result == null) {
+			synchronized (ServicePools.class) {
+				result = shared;
+				if (result == null) {
+					ExecutorFactory factory = Boolean.getBoolean("services.virtualThreads") ? ExecutorFactory.virtualThreads()
+							: ExecutorFactory.platformThreads();
+					result = new ServicePools(factory,
+							Integer.getInteger("services.poolThreads", Math.max(4, 2 * Runtime.getRuntime().availableProcessors())));
+					shared = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the number of threads of a service. Must be called before the service is first invoked; run with
+	 * -Dservices.pool.<ServiceName>=n to override it.
+	 *
+	 * @param service The name of the service.
+	 * @param serviceThreads The number of invocations of the service that run at the same time, across all things.
+	 */
+	public void configure(String service, int serviceThreads) {
+		if (pools.containsKey(service)) {
+			throw new IllegalStateException("Service " + service + " was already invoked");
+		}
+		threads.put(service, serviceThreads);
+	}
+
+	/**
+	 * @param service The name of the service.
+	 * @return The time invocations of the service waited for a slot on their thing and for a thread.
+	 */
+	public LatencyHistogram getQueueLatency(String service) {
+		return get(service).queueLatency;
+	}
+
+	/**
+	 * @param service The name of the service.
+	 * @return The time invocations of the service took to execute.
+	 */
+	public LatencyHistogram getExecutionLatency(String service) {
+		return get(service).executionLatency;
+	}
+
+	/**
+	 * Stops the executors of every service. Running invocations are interrupted.
+	 */
+	public void shutdown() {
+		for (Pool pool : pools.values()) {
+			pool.executor.shutdownNow();
+		}
+	}
+
+	Pool get(String service) {
+		Pool pool = pools.get(service);
+		if (pool == null) {
+			synchronized (pools) {
+				pool = pools.get(service);
+				if (pool == null) {
+					Integer configured = threads.get(service);
+					int serviceThreads = Integer.getInteger("services.pool." + service, configured != null ? configured : defaultThreads);
+					pool = new Pool(factory.create("ServicePools-" + service, Math.max(1, serviceThreads)));
+					pools.put(service, pool);
+				}
+			}
+		}
+		return pool;
+	}
+
+	static final class Pool {
+		final ExecutorService executor;
+		final LatencyHistogram queueLatency = new LatencyHistogram();
+		final LatencyHistogram executionLatency = new LatencyHistogram();
+
+		Pool(ExecutorService executor) {
+			this.executor = executor;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.thingworx.sdk.common;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.structs.Location;
+
+/**
+ * Reads a trace written by a {@link TraceRecorder}, one record at a time, through a memory mapping of
+ * the whole file. String definitions are resolved while reading, so {@link #next()} only stops at
+ * properties, events and commits.
+ *
+ * A reader is not thread safe.
+ */
+public class TraceReader {
+	/**
+	 * The kinds of records a trace holds.
+	 */
+	public enum Kind {
+		PROPERTY, EVENT, COMMIT
+	}
+
+	private final MappedByteBuffer buffer;
+	private final long startMillis;
+	private final List<String> strings = new ArrayList<String>();
+
+	private Kind kind;
+	private String thing;
+	private String name;
+	private long offsetNanos;
+	private Object value;
+	private ValueCollection payload;
+
+	/**
+	 * @param path The trace file.
+	 * @throws IOException If the file could not be read or is not a trace.
+	 */
+	public TraceReader(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			// The mapping stays valid once the file is closed
+			this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+		} finally {
+			file.close();
+		}
+
+		if (buffer.remaining() < 16 || buffer.getInt() != TraceRecorder.MAGIC) {
+			throw new IOException(path + " is not a trace");
+		}
+		int version = buffer.getInt();
+		if (version != TraceRecorder.VERSION) {
+			throw new IOException("Unsupported trace version " + version + " in " + path);
+		}
+		this.startMillis = buffer.getLong();
+	}
+
+	/**
+	 * Moves to the next property, event or commit.
+	 *
+	 * @return false at the end of the trace.
+	 * @throws IOException If the trace is corrupt.
+	 */
+	public boolean next() throws IOException {
+		while (buffer.hasRemaining()) {
+			byte type = buffer.get();
+			switch (type) {
+			case TraceRecorder.END:
+				return end();
+			case TraceRecorder.STRING:
+				int index = buffer.getInt();
+				if (index != strings.size()) {
+					throw new IOException("String " + index + " is out of sequence at " + buffer.position());
+				}
+				strings.add(readString());
+				break;
+			case TraceRecorder.PROPERTY:
+				readHeader(Kind.PROPERTY);
+				value = readValue();
+				payload = null;
+				return true;
+			case TraceRecorder.EVENT:
+				readHeader(Kind.EVENT);
+				value = null;
+				payload = new ValueCollection();
+				int fields = buffer.getShort() & 0xFFFF;
+				for (int field = 0; field < fields; field++) {
+					putValue(payload, string(buffer.getInt()), readValue());
+				}
+				return true;
+			case TraceRecorder.COMMIT:
+				kind = Kind.COMMIT;
+				thing = string(buffer.getInt());
+				name = null;
+				offsetNanos = buffer.getLong();
+				value = null;
+				payload = null;
+				return true;
+			default:
+				throw new IOException("Unknown record type " + type + " at " + (buffer.position() - 1));
+			}
+		}
+		return end();
+	}
+
+	/**
+	 * @return The wall clock time the trace was started, in epoch millis.
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return The name of the thing the current record belongs to.
+	 */
+	public String getThing() {
+		return thing;
+	}
+
+	/**
+	 * @return The name of the property or event, null for a commit.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The time of the current record, in nanoseconds since the trace was started.
+	 */
+	public long getOffsetNanos() {
+		return offsetNanos;
+	}
+
+	/**
+	 * @return The value of the current property.
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * @return The payload of the current event, a new collection for every event.
+	 */
+	public ValueCollection getPayload() {
+		return payload;
+	}
+
+	private boolean end() {
+		kind = null;
+		return false;
+	}
+
+	private void readHeader(Kind recordKind) throws IOException {
+		kind = recordKind;
+		thing = string(buffer.getInt());
+		name = string(buffer.getInt());
+		offsetNanos = buffer.getLong();
+	}
+
+	private String string(int index) throws IOException {
+		if (index < 0 || index >= strings.size()) {
+			throw new IOException("Undefined string " + index + " at " + buffer.position());
+		}
+		return strings.get(index);
+	}
+
+	private String readString() {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, TraceRecorder.UTF_8);
+	}
+
+	private Object readValue() throws IOException {
+		byte type = buffer.get();
+		switch (type) {
+		case TraceRecorder.NULL_VALUE:
+			return null;
+		case TraceRecorder.DOUBLE_VALUE:
+			return buffer.getDouble();
+		case TraceRecorder.INTEGER_VALUE:
+			return buffer.getInt();
+		case TraceRecorder.LONG_VALUE:
+			return buffer.getLong();
+		case TraceRecorder.BOOLEAN_VALUE:
+			return buffer.get() != 0;
+		case TraceRecorder.STRING_VALUE:
+			return readString();
+		case TraceRecorder.DATETIME_VALUE:
+			return new DateTime(buffer.getLong());
+		case TraceRecorder.LOCATION_VALUE:
+			Location location = new Location();
+			location.setLatitude(buffer.getDouble());
+			location.setLongitude(buffer.getDouble());
+			location.setElevation(buffer.getDouble());
+			return location;
+		default:
+			throw new IOException("Unknown value type " + type + " at " + (buffer.position() - 1));
+		}
+	}
+
+	private static void putValue(ValueCollection payload, String field, Object fieldValue) {
+		if (fieldValue == null) {
+			payload.put(field, null);
+		} else if (fieldValue instanceof Double) {
+			payload.SetNumberValue(field, fieldValue);
+		} else if (fieldValue instanceof Integer) {
+			payload.SetIntegerValue(field, fieldValue);
+		} else if (fieldValue instanceof Long) {
+			payload.SetLongValue(field, fieldValue);
+		} else if (fieldValue instanceof Boolean) {
+			payload.SetBooleanValue(field, fieldValue);
+		} else if (fieldValue instanceof String) {
+			payload.SetStringValue(field, fieldValue);
+		} else if (fieldValue instanceof DateTime) {
+			payload.SetDateTimeValue(field, fieldValue);
+		} else {
+			payload.SetLocationValue(field, fieldValue);
+		}
+	}
+}
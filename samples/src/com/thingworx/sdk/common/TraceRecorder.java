@@ -0,0 +1,344 @@
+package com.thingworx.sdk.common;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.structs.Location;
+
+/**
+ * Records the property values, events and commits that things stage in their {@link OutboundQueue}
+ * into a compact trace file, for {@link TraceReplayer} to feed back later. Install it with
+ * {@link OutboundPipeline#setRecorder(TraceRecorder)}.
+ *
+ * The file is written through a memory mapping that is moved forward a window at a time, so recording
+ * costs a copy into memory on the staging thread and the operating system writes the pages out. It is
+ * a header (magic, version, start time) followed by records (big endian):
+ * <ul>
+ * <li>string definition: byte 1, int index, string</li>
+ * <li>property: byte 2, int thing, int name, long nanos since start, value</li>
+ * <li>event: byte 3, int thing, int name, long nanos since start, short field count, then int field name and value per field</li>
+ * <li>commit: byte 4, int thing, long nanos since start</li>
+ * </ul>
+ * Names are string indexes, defined the first time they are used. A value is a type byte followed by
+ * the value: a double, int, long, boolean byte, string, epoch millis, or latitude, longitude and
+ * elevation doubles for a location. Strings are an int length and UTF-8 bytes. The unused end of the
+ * last window is zero, which reads as the end of the trace even if the recorder was never closed.
+ *
+ * Values of other types, such as INFOTABLE properties, are not recorded and are counted as skipped.
+ * A trace is limited to 2 GB, further records are skipped as well.
+ */
+public class TraceRecorder {
+	private static final Logger LOG = LoggerFactory.getLogger(TraceRecorder.class);
+
+	final static int MAGIC = 0x54545243; // "TTRC"
+	final static int VERSION = 1;
+	final static byte END = 0;
+	final static byte STRING = 1;
+	final static byte PROPERTY = 2;
+	final static byte EVENT = 3;
+	final static byte COMMIT = 4;
+
+	final static byte NULL_VALUE = 0;
+	final static byte DOUBLE_VALUE = 1;
+	final static byte INTEGER_VALUE = 2;
+	final static byte LONG_VALUE = 3;
+	final static byte BOOLEAN_VALUE = 4;
+	final static byte STRING_VALUE = 5;
+	final static byte DATETIME_VALUE = 6;
+	final static byte LOCATION_VALUE = 7;
+
+	final static Charset UTF_8 = Charset.forName("UTF-8");
+	private final static int WINDOW_BYTES = 8 * 1024 * 1024;
+	private final static long MAX_BYTES = Integer.MAX_VALUE;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long startNanos;
+
+	// Guarded by this
+	private final Map<String, Integer> strings = new HashMap<String, Integer>();
+	private ByteBuffer scratch = ByteBuffer.allocate(4096);
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long records;
+	private long skipped;
+	private boolean closed;
+	private boolean full;
+
+	/**
+	 * Creates a trace file, replacing any file at the same path.
+	 *
+	 * @param path The trace file.
+	 * @throws IOException If the file could not be created.
+	 */
+	public TraceRecorder(String path) throws IOException {
+		this.file = new RandomAccessFile(path, "rw");
+		this.file.setLength(0L);
+		this.channel = file.getChannel();
+		this.startNanos = System.nanoTime();
+		this.window = channel.map(FileChannel.MapMode.READ_WRITE, 0L, WINDOW_BYTES);
+		window.putInt(MAGIC);
+		window.putInt(VERSION);
+		window.putLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Records a property value staged by a thing.
+	 */
+	public synchronized void recordProperty(String thing, String name, Object value) {
+		if (closed) {
+			return;
+		}
+		if (full) {
+			skipped++;
+			return;
+		}
+		try {
+			scratch.clear();
+			int thingIndex = define(thing);
+			int nameIndex = define(name);
+			scratch.put(PROPERTY);
+			scratch.putInt(thingIndex);
+			scratch.putInt(nameIndex);
+			scratch.putLong(System.nanoTime() - startNanos);
+			if (!putValue(value)) {
+				skipped++;
+				return;
+			}
+			append();
+		} catch (TraceFullException e) {
+			LOG.warn("The trace reached {} bytes, no further updates are recorded", MAX_BYTES);
+			skipped++;
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records an event staged by a thing. The event time is not kept, replayed events take the time they are replayed at.
+	 */
+	public synchronized void recordEvent(String thing, String name, DateTime time, ValueCollection payload) {
+		if (closed) {
+			return;
+		}
+		if (full) {
+			skipped++;
+			return;
+		}
+		try {
+			scratch.clear();
+			int thingIndex = define(thing);
+			int nameIndex = define(name);
+			int[] fieldIndexes = new int[payload.size()];
+			int field = 0;
+			for (String fieldName : payload.keySet()) {
+				fieldIndexes[field++] = define(fieldName);
+			}
+
+			scratch.put(EVENT);
+			scratch.putInt(thingIndex);
+			scratch.putInt(nameIndex);
+			scratch.putLong(System.nanoTime() - startNanos);
+			scratch.putShort((short) fieldIndexes.length);
+			field = 0;
+			for (String fieldName : payload.keySet()) {
+				ensure(4);
+				scratch.putInt(fieldIndexes[field++]);
+				if (!putValue(payload.getValue(fieldName))) {
+					skipped++;
+					return;
+				}
+			}
+			append();
+		} catch (TraceFullException e) {
+			LOG.warn("The trace reached {} bytes, no further updates are recorded", MAX_BYTES);
+			skipped++;
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records that a thing committed its staged values.
+	 */
+	public synchronized void recordCommit(String thing) {
+		if (closed) {
+			return;
+		}
+		if (full) {
+			skipped++;
+			return;
+		}
+		try {
+			scratch.clear();
+			int thingIndex = define(thing);
+			scratch.put(COMMIT);
+			scratch.putInt(thingIndex);
+			scratch.putLong(System.nanoTime() - startNanos);
+			append();
+		} catch (TraceFullException e) {
+			LOG.warn("The trace reached {} bytes, no further updates are recorded", MAX_BYTES);
+			skipped++;
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * @return The number of properties, events and commits recorded.
+	 */
+	public synchronized long getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * @return The number of properties and events not recorded, because of a value type or the size limit.
+	 */
+	public synchronized long getSkippedCount() {
+		return skipped;
+	}
+
+	/**
+	 * Stops recording, writes the whole trace out to the device and cuts the file down to the records written.
+	 *
+	 * @throws IOException If the file could not be closed.
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		long length = windowStart + window.position();
+		window.force();
+		window = null;
+		try {
+			// Also syncs the windows moved past, which were never forced
+			channel.force(false);
+			try {
+				channel.truncate(length);
+			} catch (IOException e) {
+				// Some platforms refuse to truncate a mapped file, the zeroed tail still ends the trace
+				LOG.debug("Could not truncate the trace to {} bytes", length, e);
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	// Writes a string definition straight to the file the first time a string is seen
+	private int define(String value) throws IOException {
+		Integer index = strings.get(value);
+		if (index == null) {
+			index = strings.size();
+			strings.put(value, index);
+			byte[] bytes = value.getBytes(UTF_8);
+			ByteBuffer definition = ByteBuffer.allocate(9 + bytes.length);
+			definition.put(STRING);
+			definition.putInt(index);
+			definition.putInt(bytes.length);
+			definition.put(bytes);
+			definition.flip();
+			write(definition);
+		}
+		return index;
+	}
+
+	private boolean putValue(Object value) {
+		if (value == null) {
+			ensure(1);
+			scratch.put(NULL_VALUE);
+		} else if (value instanceof Double || value instanceof Float) {
+			ensure(9);
+			scratch.put(DOUBLE_VALUE);
+			scratch.putDouble(((Number) value).doubleValue());
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			ensure(5);
+			scratch.put(INTEGER_VALUE);
+			scratch.putInt(((Number) value).intValue());
+		} else if (value instanceof Long) {
+			ensure(9);
+			scratch.put(LONG_VALUE);
+			scratch.putLong((Long) value);
+		} else if (value instanceof Boolean) {
+			ensure(2);
+			scratch.put(BOOLEAN_VALUE);
+			scratch.put((byte) ((Boolean) value ? 1 : 0));
+		} else if (value instanceof String) {
+			byte[] bytes = ((String) value).getBytes(UTF_8);
+			ensure(5 + bytes.length);
+			scratch.put(STRING_VALUE);
+			scratch.putInt(bytes.length);
+			scratch.put(bytes);
+		} else if (value instanceof DateTime) {
+			ensure(9);
+			scratch.put(DATETIME_VALUE);
+			scratch.putLong(((DateTime) value).getMillis());
+		} else if (value instanceof Location) {
+			Location location = (Location) value;
+			ensure(25);
+			scratch.put(LOCATION_VALUE);
+			scratch.putDouble(location.getLatitude());
+			scratch.putDouble(location.getLongitude());
+			scratch.putDouble(location.getElevation());
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	// Grows the scratch buffer, keeping what was put so far
+	private void ensure(int bytes) {
+		if (scratch.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + bytes));
+			scratch.flip();
+			larger.put(scratch);
+			scratch = larger;
+		}
+	}
+
+	private void append() throws IOException {
+		scratch.flip();
+		write(scratch);
+		records++;
+	}
+
+	private void write(ByteBuffer bytes) throws IOException {
+		if (window.remaining() < bytes.remaining()) {
+			long position = windowStart + window.position();
+			if (position + bytes.remaining() > MAX_BYTES) {
+				full = true;
+				throw new TraceFullException();
+			}
+			// The pages of the previous window are left for the operating system to write out, close() syncs them
+			windowStart = position;
+			window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart,
+					Math.min(Math.max(WINDOW_BYTES, bytes.remaining()), MAX_BYTES - windowStart));
+		}
+		window.put(bytes);
+	}
+
+	// Thrown when a record would take the trace past its size limit
+	private static class TraceFullException extends IOException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private void fail(IOException e) {
+		LOG.error("Recording the trace failed, no further updates are recorded", e);
+		try {
+			close();
+		} catch (IOException closing) {
+			LOG.debug("Closing the failed trace failed as well", closing);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.thingworx.sdk.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+import org.joda.time.DateTime;
+
+/**
+ * Feeds a trace written by a {@link TraceRecorder} back into the outbound queues of live things, to
+ * reproduce recorded fleet traffic against a server. Each thing of the trace is replayed on one or
+ * more target things, so a trace of a few trucks can drive thousands.
+ *
+ * Records are staged at their recorded offset divided by the speed, so a speed of 10 replays an hour
+ * of traffic in six minutes. With an infinite speed records are staged as fast as they are read and
+ * the replay is limited only by the outbound pipeline: a full event queue with the BLOCK policy holds
+ * the replay back, other policies drop events as they would in production. How far the replay fell
+ * behind the schedule is recorded in {@link #getLag()}.
+ *
+ * A replay runs on the calling thread.
+ */
+public class TraceReplayer {
+	private final String path;
+	private final double speed;
+	private final Set<String> things = new LinkedHashSet<String>();
+	private final Map<String, List<OutboundQueue>> targets = new HashMap<String, List<OutboundQueue>>();
+	private final LatencyHistogram lag = new LatencyHistogram();
+	private long replayed;
+	private long unmatched;
+	private long elapsedNanos;
+
+	/**
+	 * Reads the names of the things in a trace.
+	 *
+	 * @param path The trace file.
+	 * @param speed How many times faster than recorded to replay, Double.POSITIVE_INFINITY for as fast as possible.
+	 * @throws IOException If the trace could not be read.
+	 */
+	public TraceReplayer(String path, double speed) throws IOException {
+		if (!(speed > 0d)) {
+			throw new IllegalArgumentException("The replay speed must be positive, not " + speed);
+		}
+		this.path = path;
+		this.speed = speed;
+		TraceReader reader = new TraceReader(path);
+		while (reader.next()) {
+			things.add(reader.getThing());
+		}
+	}
+
+	/**
+	 * @return The names of the things in the trace, in the order they first appear.
+	 */
+	public Set<String> getThings() {
+		return Collections.unmodifiableSet(things);
+	}
+
+	/**
+	 * Replays the records of a thing of the trace on a target thing as well.
+	 *
+	 * @param traceThing The name of the thing in the trace.
+	 * @param queue The outbound queue of the target thing.
+	 */
+	public void addTarget(String traceThing, OutboundQueue queue) {
+		List<OutboundQueue> queues = targets.get(traceThing);
+		if (queues == null) {
+			queues = new ArrayList<OutboundQueue>();
+			targets.put(traceThing, queues);
+		}
+		queues.add(queue);
+	}
+
+	/**
+	 * Replays the whole trace once.
+	 *
+	 * @throws IOException If the trace could not be read.
+	 * @throws InterruptedException If interrupted while pacing the replay or waiting for room in an event queue.
+	 */
+	public void replay() throws IOException, InterruptedException {
+		TraceReader reader = new TraceReader(path);
+		long begin = System.nanoTime();
+		while (reader.next()) {
+			List<OutboundQueue> queues = targets.get(reader.getThing());
+			if (queues == null) {
+				unmatched++;
+				continue;
+			}
+
+			if (speed != Double.POSITIVE_INFINITY) {
+				long due = begin + (long) (reader.getOffsetNanos() / speed);
+				long wait = due - System.nanoTime();
+				while (wait > 0) {
+					LockSupport.parkNanos(wait);
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+					wait = due - System.nanoTime();
+				}
+				lag.record(-wait);
+			}
+
+			switch (reader.getKind()) {
+			case PROPERTY:
+				for (OutboundQueue queue : queues) {
+					queue.setProperty(reader.getName(), reader.getValue());
+				}
+				break;
+			case EVENT:
+				// Payloads are only read by the SDK, the targets share one
+				DateTime now = new DateTime();
+				for (OutboundQueue queue : queues) {
+					queue.queueEvent(reader.getName(), now, reader.getPayload());
+				}
+				break;
+			case COMMIT:
+				for (OutboundQueue queue : queues) {
+					queue.commit();
+				}
+				break;
+			}
+			replayed++;
+		}
+		elapsedNanos = System.nanoTime() - begin;
+	}
+
+	/**
+	 * @return How late records were staged compared with the schedule, empty for an infinite speed.
+	 */
+	public LatencyHistogram getLag() {
+		return lag;
+	}
+
+	/**
+	 * @return The number of records replayed, each on every target of its thing.
+	 */
+	public long getReplayedCount() {
+		return replayed;
+	}
+
+	/**
+	 * @return The number of records skipped because their thing had no target.
+	 */
+	public long getUnmatchedCount() {
+		return unmatched;
+	}
+
+	/**
+	 * @return How long the last replay took, in milliseconds.
+	 */
+	public double getElapsedMillis() {
+		return elapsedNanos / 1000000d;
+	}
+}
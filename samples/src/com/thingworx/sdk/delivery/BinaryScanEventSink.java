@@ -0,0 +1,58 @@
+package com.thingworx.sdk.delivery;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes scan events to a compact binary file. Thing names are written once, the first time a thing
+ * is seen, and are referred to by their index afterwards.
+ *
+ * Record layout (big endian):
+ * <ul>
+ * <li>name definition: byte -1, int index, UTF name</li>
+ * <li>event: byte event ordinal, int name index, long timestamp, double speed, double deliveriesLeft, int suppressed</li>
+ * </ul>
+ */
+public class BinaryScanEventSink implements ScanEventSink {
+	private final static int NAME_DEFINITION = -1;
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+	public BinaryScanEventSink(String path) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 64 * 1024));
+	}
+
+	@Override
+	public void write(long timestamp, String thingName, TruckEvent event, double speed, double deliveriesLeft, int suppressed) throws IOException {
+		Integer index = names.get(thingName);
+		if (index == null) {
+			index = names.size();
+			names.put(thingName, index);
+			out.writeByte(NAME_DEFINITION);
+			out.writeInt(index);
+			out.writeUTF(thingName);
+		}
+
+		out.writeByte(event.ordinal());
+		out.writeInt(index);
+		out.writeLong(timestamp);
+		out.writeDouble(speed);
+		out.writeDouble(deliveriesLeft);
+		out.writeInt(suppressed);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
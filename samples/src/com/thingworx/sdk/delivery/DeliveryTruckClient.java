@@ -1,5 +1,15 @@
 package com.thingworx.sdk.delivery;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -7,12 +17,64 @@ import com.thingworx.communications.client.ClientConfigurator;
 import com.thingworx.communications.client.ConnectedThingClient;
 import com.thingworx.communications.client.things.VirtualThing;
 import com.thingworx.communications.common.SecurityClaims;
+import com.thingworx.sdk.aggregation.FleetSummary;
+import com.thingworx.sdk.common.ExecutorFactory;
+import com.thingworx.sdk.common.OutboundPipeline;
+import com.thingworx.sdk.common.TraceRecorder;
+import com.thingworx.sdk.common.TraceReplayer;
+import com.thingworx.sdk.entities.BindListener;
+import com.thingworx.sdk.entities.BulkBinder;
+import com.thingworx.sdk.entities.EntityIndex;
+import com.thingworx.sdk.entities.ShardedThingHost;
+import com.thingworx.sdk.entities.ThingEntry;
+import com.thingworx.sdk.entities.ThingFactory;
+import com.thingworx.sdk.entities.ThingHandover;
+import com.thingworx.sdk.geofence.GeofenceIndex;
 
 //Refer to the "Delivery Truck Example" section of the documentation
 //for a detailed explanation of this example's operation 
 public class DeliveryTruckClient extends ConnectedThingClient {
 	private static final Logger LOG = LoggerFactory.getLogger(DeliveryTruckClient.class);
 
+	// The entity export that was imported into the ThingWorx Composer
+	private static final String DEFAULT_ENTITIES_FILE = "../Entities/ThingWorxEntities.xml";
+	// Every Thing that binds this event is hosted as a DeliveryTruckThing
+	private static final String DELIVERY_STOP_EVENT = "DeliveryStop";
+	// Run with -Ddelivery.seed=<n> to reproduce the same fleet telemetry on every run
+	private static final String SEED_PROPERTY = "delivery.seed";
+	// Run with -Ddelivery.eventlog.file=<path> to write the truck state transitions to a binary file instead of the log
+	private static final String EVENT_LOG_FILE_PROPERTY = "delivery.eventlog.file";
+	// Run with -Ddelivery.connections=<n> to spread the trucks over n connections to the server
+	private static final String CONNECTIONS_PROPERTY = "delivery.connections";
+	// Run with -Ddelivery.geofences=<path> to track the trucks against the zones in the file, see GeofenceIndex.load
+	private static final String GEOFENCES_PROPERTY = "delivery.geofences";
+	private static final double GEOFENCE_CELL_DEGREES = 0.1d;
+	private static final long GEOFENCE_DWELL_MILLIS = Long.getLong("delivery.geofence.dwell", 5 * 60 * 1000L);
+	private static final long LOCATION_PUSH_INTERVAL_MILLIS = Long.getLong("delivery.location.interval", 60 * 1000L);
+	// Run with -Ddelivery.summary.window=<ms> to summarize the telemetry of each truck, and of the fleet, over time windows
+	private static final String SUMMARY_WINDOW_PROPERTY = "delivery.summary.window";
+	private static final String SUMMARY_SLIDE_PROPERTY = "delivery.summary.slide";
+	private static final String SUMMARY_RAW_SPEED_PROPERTY = "delivery.summary.rawSpeed";
+	// Run with -Ddelivery.snapshot.file=<path> to save the trucks' state on shutdown and carry on from it on the next start
+	private static final String SNAPSHOT_FILE_PROPERTY = "delivery.snapshot.file";
+	// How long a shutdown waits for the pending updates to be pushed before the state is saved
+	private static final long DRAIN_TIMEOUT_MILLIS = Long.getLong("delivery.drain.timeout", 5000L);
+	// Run with -Ddelivery.trace.record=<path> to record every update the trucks push, see TraceRecorder
+	private static final String TRACE_RECORD_PROPERTY = "delivery.trace.record";
+	// Run with -Ddelivery.trace.replay=<path> to replay a recorded trace instead of simulating the trucks
+	private static final String TRACE_REPLAY_PROPERTY = "delivery.trace.replay";
+	// Run with -Ddelivery.trace.speed=<n> to replay n times faster than recorded, or max to replay as fast as the pipeline allows
+	private static final String TRACE_SPEED_PROPERTY = "delivery.trace.speed";
+	// Run with -Ddelivery.bind.batch=<n> to bind the trucks up front in batches of n, by default each truck is created and bound on its first scan
+	private static final int BIND_BATCH_SIZE = Integer.getInteger("delivery.bind.batch", 0);
+	// Run with -Ddelivery.bind.threads=<n> to construct n trucks at a time while binding up front
+	private static final int BIND_THREADS = Integer.getInteger("delivery.bind.threads", Runtime.getRuntime().availableProcessors());
+	// Run with -Ddelivery.bind.virtualThreads=true to construct the trucks on virtual threads where available
+	private static final String BIND_VIRTUAL_THREADS_PROPERTY = "delivery.bind.virtualThreads";
+	private static final long CONNECT_TIMEOUT_MILLIS = 30000L;
+	// Run with -Ddelivery.rejoinDelay=<ms> to change how long a connection that came back must stay up before trucks move back to it
+	private static final long REJOIN_DELAY_MILLIS = Long.getLong("delivery.rejoinDelay", 30000L);
+
 	public DeliveryTruckClient(ClientConfigurator config) throws Exception {
 		super(config);
 	}
@@ -24,6 +86,283 @@ public class DeliveryTruckClient extends ConnectedThingClient {
 		//Updated based on that value
 		String appKey = "b3d06be7-c9e1-4a9c-b967-28cd4c49fa80";
 
+		// Each connection to the server carries a share of the trucks, see ShardedThingHost
+		int connections = Integer.getInteger(CONNECTIONS_PROPERTY, 1);
+		List<DeliveryTruckClient> clients = new ArrayList<DeliveryTruckClient>();
+		for (int index = 0; index < connections; index++) {
+			// Create the client passing in the configuration from below
+			clients.add(new DeliveryTruckClient(createConfigurator(appKey)));
+		}
+
+		String eventLogFile = System.getProperty(EVENT_LOG_FILE_PROPERTY);
+		if (eventLogFile != null) {
+			ScanEventLog.install(new ScanEventLog(new BinaryScanEventSink(eventLogFile), 8192));
+		}
+
+		// The delivery trucks, and what they are bound to, come from the entity export.
+		// A DeliveryTruckThing is only created and bound when its truck is first scanned, see startBind.
+		EntityIndex index = EntityIndex.load(args.length > 0 ? args[0] : DEFAULT_ENTITIES_FILE);
+		Collection<ThingEntry> entries = index.getThingsBindingEvent(DELIVERY_STOP_EVENT);
+		final Long seed = Long.getLong(SEED_PROPERTY);
+		String geofenceFile = System.getProperty(GEOFENCES_PROPERTY);
+		final GeofenceIndex geofences = geofenceFile != null ? GeofenceIndex.load(geofenceFile, GEOFENCE_CELL_DEGREES) : null;
+		final Long summaryWindow = Long.getLong(SUMMARY_WINDOW_PROPERTY);
+		final long summarySlide = Long.getLong(SUMMARY_SLIDE_PROPERTY, summaryWindow != null ? summaryWindow : 0L);
+		final boolean pushRawSpeed = !"false".equals(System.getProperty(SUMMARY_RAW_SPEED_PROPERTY));
+		final FleetSummary fleet = new FleetSummary();
+
+		// Read the whole snapshot before connecting, each truck takes its state when it is created
+		final String snapshotFile = System.getProperty(SNAPSHOT_FILE_PROPERTY);
+		final Map<String, TruckState> restored = new ConcurrentHashMap<String, TruckState>();
+		if (snapshotFile != null) {
+			long begin = System.nanoTime();
+			restored.putAll(TruckStateSnapshot.load(snapshotFile));
+			LOG.info("Read the state of {} trucks from {} in {} ms", restored.size(), snapshotFile, (System.nanoTime() - begin) / 1000000L);
+		}
+
+		// Push what is pending and save the trucks' state, once, when the process is stopped or the
+		// platform invokes the Shutdown service of a truck
+		final AtomicReference<ShardedThingHost> host = new AtomicReference<ShardedThingHost>();
+		final AtomicBoolean stopped = new AtomicBoolean();
+		final Runnable shutdown = new Runnable() {
+			@Override
+			public void run() {
+				if (stopped.compareAndSet(false, true)) {
+					drainAndSave(host.get(), snapshotFile, restored, DRAIN_TIMEOUT_MILLIS);
+				}
+			}
+		};
+		ShardedThingHost trucks = new ShardedThingHost(clients, new ThingFactory() {
+			@Override
+			public VirtualThing create(ThingEntry entry, ConnectedThingClient owner) throws Exception {
+				SimulationRandom random = seed != null ? SimulationRandoms.forThing(seed, entry.getName()) : SimulationRandoms.unseeded();
+				DeliveryTruckThing truck = new DeliveryTruckThing(entry.getName(), "Delivery Truck thing in ThingWorx composer", owner, random);
+				truck.setShutdownAction(shutdown);
+				if (geofences != null) {
+					truck.setGeofences(geofences, GEOFENCE_DWELL_MILLIS, LOCATION_PUSH_INTERVAL_MILLIS);
+				}
+				if (summaryWindow != null) {
+					truck.setTelemetryAggregation(summaryWindow, summarySlide, fleet, pushRawSpeed);
+				}
+				// Only the first creation restores from the snapshot, a truck moved to another connection is handed its current state
+				TruckState state = restored.remove(entry.getName());
+				if (state != null) {
+					truck.restoreState(state);
+				}
+				return truck;
+			}
+		}, entries, new ThingHandover() {
+			@Override
+			public void handOver(VirtualThing previous, VirtualThing next) throws Exception {
+				DeliveryTruckThing moved = (DeliveryTruckThing) previous;
+				// Writes received on the previous connection are part of the state carried over
+				moved.getWriteCoalescer().flush();
+				((DeliveryTruckThing) next).restoreState(moved.captureState());
+			}
+
+			@Override
+			public void release(VirtualThing thing) {
+				((DeliveryTruckThing) thing).release();
+			}
+		}, REJOIN_DELAY_MILLIS);
+
+		LOG.info("Hosting {} delivery trucks on {} connections", trucks.size(), connections);
+
+		String traceFile = System.getProperty(TRACE_RECORD_PROPERTY);
+		if (traceFile != null) {
+			OutboundPipeline.shared().setRecorder(new TraceRecorder(traceFile));
+			LOG.info("Recording the updates of the trucks to {}", traceFile);
+		}
+		String replayFile = System.getProperty(TRACE_REPLAY_PROPERTY);
+
+		host.set(trucks);
+		Runtime.getRuntime().addShutdownHook(new Thread(shutdown, "DeliveryTruckClient-shutdown"));
+
+		try {
+			// Start the clients. The clients will connect to the server and 
+	        // authenticate, using the Application Key specified above.
+	        trucks.start();
+
+	        LOG.info("The clients are now started.");
+
+			// Each scan activates the trucks it finds unbound; with a bulk bind the scans wait for it to claim the fleet
+			CountDownLatch claimed = startBind(trucks);
+
+			if (replayFile != null) {
+				// The trucks push the recorded traffic and are not scanned
+				replayTrace(trucks, entries, replayFile, parseSpeed(System.getProperty(TRACE_SPEED_PROPERTY, "1")));
+			}
+
+            // As long as the clients have not been shutdown, continue
+			boolean firstPush = true;
+			while(!trucks.isShutdown()) {
+				// Process the delivery trucks on the connected clients
+				int scanned = 0;
+				if (replayFile == null && claimed.getCount() == 0) {
+					scanned = trucks.scanAll();
+				}
+
+				if (firstPush && scanned > 0) {
+					// The first scan activates every truck it can and pushes the restored, or initial, state of each
+					firstPush = false;
+					OutboundPipeline.shared().awaitDrained(DRAIN_TIMEOUT_MILLIS);
+					LOG.info("First push of {} trucks completed {} ms after the process started, restored from a snapshot: {}",
+							trucks.getThings().size(), System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime(),
+							snapshotFile != null);
+				}
+
+				// Suspend processing at the scan rate interval
+				Thread.sleep(1000);
+			}
+		}
+		catch(Exception eStart) {
+			LOG.error("Initial Start Failed", eStart);
+		}
+	}
+
+	/**
+	 * Creates and binds every truck up front on a background thread when run with -Ddelivery.bind.batch,
+	 * in batches, logging the progress every tenth of the fleet. Otherwise, and for the trucks the batches
+	 * could not bind, a truck is created and bound on its first scan.
+	 *
+	 * @return Counted down once the bulk bind has claimed the trucks it binds, or right away without one,
+	 * so that a scan does not create them one at a time meanwhile.
+	 */
+	private static CountDownLatch startBind(final ShardedThingHost trucks) {
+		final CountDownLatch claimed = new CountDownLatch(1);
+		if (BIND_BATCH_SIZE <= 0) {
+			claimed.countDown();
+			return claimed;
+		}
+
+		ExecutorFactory executors = Boolean.getBoolean(BIND_VIRTUAL_THREADS_PROPERTY) ? ExecutorFactory.virtualThreads()
+				: ExecutorFactory.platformThreads();
+		final BulkBinder binder = new BulkBinder(executors, BIND_THREADS, BIND_BATCH_SIZE);
+		final long begin = System.nanoTime();
+		final BindListener progress = new BindListener() {
+			private int lastTenth;
+
+			@Override
+			public synchronized void batchBound(List<VirtualThing> batch, int bound, int failed, int total) {
+				// The bulk bind claims the whole fleet before the first batch is bound
+				claimed.countDown();
+				int tenth = (bound + failed) * 10 / Math.max(1, total);
+				if (tenth > lastTenth) {
+					lastTenth = tenth;
+					LOG.info("Bound {} of {} trucks, {} failed, {} ms after the bind started", bound, total, failed,
+							(System.nanoTime() - begin) / 1000000L);
+				}
+			}
+		};
+
+		Thread bind = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					int bound = trucks.bindAll(binder, CONNECT_TIMEOUT_MILLIS, progress);
+					LOG.info("Bound {} trucks in {} ms", bound, (System.nanoTime() - begin) / 1000000L);
+				} catch (Exception e) {
+					LOG.error("Binding the trucks up front failed, the rest are bound on their first scan.", e);
+				} finally {
+					claimed.countDown();
+				}
+			}
+		}, "DeliveryTruckClient-bind");
+		bind.setDaemon(true);
+		bind.start();
+		return claimed;
+	}
+
+	// Activates a truck, waiting for a connection to bind it on; null if the trucks were shut down first
+	private static VirtualThing awaitThing(ShardedThingHost trucks, String name) throws Exception {
+		VirtualThing thing = trucks.getThing(name);
+		while (thing == null && !trucks.isShutdown()) {
+			Thread.sleep(100);
+			thing = trucks.getThing(name);
+		}
+		return thing;
+	}
+
+	/**
+	 * Replays a recorded trace on the hosted trucks, binding them first. Each hosted truck replays one
+	 * truck of the trace, in turn, so a trace of a few trucks drives the whole fleet.
+	 */
+	private static void replayTrace(ShardedThingHost trucks, Collection<ThingEntry> entries, String replayFile, double speed)
+			throws Exception {
+		TraceReplayer replayer = new TraceReplayer(replayFile, speed);
+		List<String> recorded = new ArrayList<String>(replayer.getThings());
+		if (recorded.isEmpty()) {
+			LOG.warn("The trace {} holds no updates", replayFile);
+			return;
+		}
+
+		int targets = 0;
+		for (ThingEntry entry : entries) {
+			// No truck is bound until a connection is up
+			VirtualThing thing = awaitThing(trucks, entry.getName());
+			if (thing instanceof DeliveryTruckThing) {
+				replayer.addTarget(recorded.get(targets++ % recorded.size()), ((DeliveryTruckThing) thing).getOutboundQueue());
+			}
+		}
+
+		LOG.info("Replaying {} recorded trucks on {} trucks at {}x", recorded.size(), targets, speed);
+		replayer.replay();
+		OutboundPipeline.shared().awaitDrained(DRAIN_TIMEOUT_MILLIS);
+		LOG.info("Replayed {} updates in {} ms, lag behind the schedule [{}], dropped events {}", replayer.getReplayedCount(),
+				replayer.getElapsedMillis(), replayer.getLag(), OutboundPipeline.shared().getDroppedEvents());
+	}
+
+	private static double parseSpeed(String speed) {
+		return "max".equalsIgnoreCase(speed) ? Double.POSITIVE_INFINITY : Double.parseDouble(speed);
+	}
+
+	/**
+	 * Stops the trucks gracefully: stages each truck's pending updates, waits up to the timeout for them
+	 * to be pushed, writes the state of every bound truck to the snapshot file and disconnects. Restored
+	 * states of trucks that were never bound are written again unchanged.
+	 */
+	private static void drainAndSave(ShardedThingHost trucks, String snapshotFile, Map<String, TruckState> unclaimed,
+			long drainTimeoutMillis) {
+		Map<String, VirtualThing> things = trucks.getThings();
+		try {
+			for (VirtualThing thing : things.values()) {
+				if (thing instanceof DeliveryTruckThing) {
+					((DeliveryTruckThing) thing).getOutboundQueue().commit();
+				}
+			}
+			if (!OutboundPipeline.shared().awaitDrained(drainTimeoutMillis)) {
+				LOG.warn("Updates were still pending after {} ms, shutting down without them", drainTimeoutMillis);
+			}
+			TraceRecorder recorder = OutboundPipeline.shared().getRecorder();
+			if (recorder != null) {
+				OutboundPipeline.shared().setRecorder(null);
+				recorder.close();
+				LOG.info("Recorded {} updates, skipped {}", recorder.getRecordCount(), recorder.getSkippedCount());
+			}
+
+			if (snapshotFile != null) {
+				List<TruckState> states = new ArrayList<TruckState>(things.size());
+				for (VirtualThing thing : things.values()) {
+					if (thing instanceof DeliveryTruckThing) {
+						states.add(((DeliveryTruckThing) thing).captureState());
+					}
+				}
+				for (TruckState state : unclaimed.values()) {
+					if (!things.containsKey(state.getName())) {
+						states.add(state);
+					}
+				}
+				TruckStateSnapshot.write(snapshotFile, states);
+				LOG.info("Saved the state of {} trucks to {}", states.size(), snapshotFile);
+			}
+		} catch (Exception e) {
+			LOG.error("Failed to save the state of the trucks.", e);
+		} finally {
+			trucks.shutdown();
+		}
+	}
+
+	private static ClientConfigurator createConfigurator(String appKey) {
 		// Set the required configuration information
 		ClientConfigurator config = new ClientConfigurator();
 		
@@ -46,46 +385,7 @@ public class DeliveryTruckClient extends ConnectedThingClient {
 		//SecurityClaims claims = SecurityClaims.fromCredentials("default_user", "admin");
 		SecurityClaims claims = SecurityClaims.fromAppKey(appKey);
 		config.setSecurityClaims(claims);
-		
-		// Create the client passing in the configuration from above
-		DeliveryTruckClient client = new DeliveryTruckClient(config);
-
-		DeliveryTruckThing truckThing1 = new DeliveryTruckThing("DeliveryTruck_1", "Delivery Truck thing in ThingWorx composer", client);
-		DeliveryTruckThing truckThing2 = new DeliveryTruckThing("DeliveryTruck_2", "Delivery Truck thing in ThingWorx composer", client);
-		DeliveryTruckThing truckThing3 = new DeliveryTruckThing("DeliveryTruck_3", "Delivery Truck thing in ThingWorx composer", client);
-		client.bindThing(truckThing1);
-		client.bindThing(truckThing2);
-		client.bindThing(truckThing3);
 
-		try {
-			// Start the client. The client will connect to the server and 
-	        // authenticate, using the Application Key specified above.
-	        client.start();
-
-	        LOG.info("The client is now connected.");
-
-            // As long as the client has not been shutdown, continue
-			while(!client.isShutdown()) {
-				// Only process the Virtual Things if the client is connected
-				if(client.isConnected()) {
-					// Loop over all the Virtual Things and process them
-					for(VirtualThing thing : client.getThings().values()) {
-						try {
-							thing.processScanRequest();
-						}
-						catch(Exception eProcessing) {
-							System.out.println("Error Processing Scan Request for [" + thing.getName() + "] : " + eProcessing.getMessage());
-							eProcessing.printStackTrace();
-						}
-					}
-				}
-
-				// Suspend processing at the scan rate interval
-				Thread.sleep(1000);
-			}
-		}
-		catch(Exception eStart) {
-			System.out.println("Initial Start Failed : " + eStart.getMessage());
-		}
+		return config;
 	}
 }
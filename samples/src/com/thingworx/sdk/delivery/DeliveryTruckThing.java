@@ -1,6 +1,8 @@
 package com.thingworx.sdk.delivery;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -8,8 +10,6 @@ import org.slf4j.LoggerFactory;
 
 import com.thingworx.communications.client.ConnectedThingClient;
 import com.thingworx.communications.client.things.VirtualThing;
-import com.thingworx.communications.client.things.VirtualThingPropertyChangeEvent;
-import com.thingworx.communications.client.things.VirtualThingPropertyChangeListener;
 import com.thingworx.metadata.FieldDefinition;
 import com.thingworx.metadata.annotations.ThingworxEventDefinition;
 import com.thingworx.metadata.annotations.ThingworxEventDefinitions;
@@ -19,11 +19,32 @@ import com.thingworx.metadata.annotations.ThingworxServiceDefinition;
 import com.thingworx.metadata.annotations.ThingworxServiceParameter;
 import com.thingworx.metadata.annotations.ThingworxServiceResult;
 import com.thingworx.metadata.collections.FieldDefinitionCollection;
+import com.thingworx.sdk.aggregation.FleetSummary;
+import com.thingworx.sdk.aggregation.Summary;
+import com.thingworx.sdk.aggregation.WindowListener;
+import com.thingworx.sdk.aggregation.WindowedAggregator;
+import com.thingworx.sdk.common.OutboundPipeline;
+import com.thingworx.sdk.common.OutboundQueue;
+import com.thingworx.sdk.common.OverflowPolicy;
+import com.thingworx.sdk.common.PayloadRecord;
+import com.thingworx.sdk.common.PayloadSchema;
+import com.thingworx.sdk.common.PriorityClass;
+import com.thingworx.sdk.common.PriorityClasses;
+import com.thingworx.sdk.common.PropertyBatchListener;
+import com.thingworx.sdk.common.PropertyWriteCoalescer;
+import com.thingworx.sdk.common.ServiceExecutor;
+import com.thingworx.sdk.common.ServiceLimits;
+import com.thingworx.sdk.geofence.Geofence;
+import com.thingworx.sdk.geofence.GeofenceIndex;
+import com.thingworx.sdk.geofence.GeofenceListener;
+import com.thingworx.sdk.geofence.GeofenceTracker;
+import com.thingworx.sdk.geofence.GeofenceTransition;
 import com.thingworx.types.BaseTypes;
 import com.thingworx.types.InfoTable;
 import com.thingworx.types.collections.ValueCollection;
 import com.thingworx.types.constants.CommonPropertyNames;
 import com.thingworx.types.primitives.DatetimePrimitive;
+import com.thingworx.types.primitives.IPrimitiveType;
 import com.thingworx.types.primitives.structs.Location;
 
 //Refer to the "Delivery Truck Example" section of the documentation
@@ -42,13 +63,17 @@ import com.thingworx.types.primitives.structs.Location;
 
 // Event Definitions
 @ThingworxEventDefinitions(events = {
-	@ThingworxEventDefinition(name="DeliveryStop", description="The event of a delivery truck stopping to deliver a package.", dataShape="DeliveryTruckShape", isInvocable=true, isPropertyEvent=false)
+	@ThingworxEventDefinition(name="DeliveryStop", description="The event of a delivery truck stopping to deliver a package.", dataShape="DeliveryTruckShape", isInvocable=true, isPropertyEvent=false),
+	@ThingworxEventDefinition(name="GeofenceTransition", description="The event of a delivery truck entering, leaving or dwelling in a geofence.", dataShape="GeofenceTransitionShape", isInvocable=true, isPropertyEvent=false),
+	@ThingworxEventDefinition(name="TelemetrySummary", description="The summary of a delivery truck's telemetry over a time window.", dataShape="TelemetrySummaryShape", isInvocable=true, isPropertyEvent=false)
 })
 
 // Delivery Truck virtual thing class that simulates a Delivery Truck
-public class DeliveryTruckThing extends VirtualThing implements Runnable, VirtualThingPropertyChangeListener {
+public class DeliveryTruckThing extends VirtualThing implements PropertyBatchListener, GeofenceListener {
 	private static final Logger LOG = LoggerFactory.getLogger(DeliveryTruckThing.class);
 	private Thread _shutdownThread = null;
+	// Drains and saves the whole fleet when the platform invokes Shutdown, see setShutdownAction
+	private Runnable shutdownAction;
 	private List<String> drivers;
 	private double deliveriesMade;
 	private double deliveriesLeft;
@@ -56,6 +81,19 @@ public class DeliveryTruckThing extends VirtualThing implements Runnable, Virtua
 	private String driver;
 	private double speed;
 	private Location location;
+	private final SimulationRandom random;
+	// Property values and events waiting to be pushed, see processScanRequest
+	private final OutboundQueue outbound;
+	private final static int OUTBOUND_EVENT_CAPACITY = 100;
+	// Run with -Ddelivery.eventlog.interval=<ms> to log at most one state transition per truck in that interval
+	private final ScanEventLog.Sampler eventSampler = new ScanEventLog.Sampler(Long.getLong("delivery.eventlog.interval", 0L));
+	// Property writes received within this window are applied together, see propertiesChanged
+	private final static long PROPERTY_WRITE_WINDOW_MILLIS = Long.getLong("delivery.write.window", 20L);
+	private final PropertyWriteCoalescer writeCoalescer = new PropertyWriteCoalescer(this, PROPERTY_WRITE_WINDOW_MILLIS);
+	// Services invoked by the platform run isolated from each other, see processServiceRequest
+	// Run with -Dservices.<ServiceName>=concurrency,queueLimit,timeoutMillis to change the limits of a service
+	private final ServiceExecutor services;
+	private final static ServiceLimits DEFAULT_SERVICE_LIMITS = ServiceLimits.fromProperty("services.default", new ServiceLimits(4, 16, 10000L));
 
 	private final static String ACTIV_TIME_FIELD = "ActivationTime";
 	private final static String DELIVERIES_LEFT_FIELD = "DeliveriesLeft";
@@ -67,14 +105,72 @@ public class DeliveryTruckThing extends VirtualThing implements Runnable, Virtua
 	private final static String TRUCK_NAME_FIELD = "Truck";
 	private final static String LOCATION_FIELD = "Location";
 	private final static String SPEED_FIELD = "Speed";
+	private final static String ZONE_FIELD = "Zone";
+	private final static String TRANSITION_FIELD = "Transition";
+	private final static String GEOFENCE_EVENT = "GeofenceTransition";
+	private final static String DELIVERY_STOP_EVENT = "DeliveryStop";
+
+	// Delivery stops and geofence transitions are pushed ahead of the Speed telemetry and of large service results
+	private final static PriorityClasses PRIORITIES = new PriorityClasses()
+			.declareEvent(DELIVERY_STOP_EVENT, PriorityClass.CRITICAL)
+			.declareEvent(GEOFENCE_EVENT, PriorityClass.CRITICAL)
+			.declareProperty(SPEED_FIELD, PriorityClass.BULK);
+
+	// Set by setGeofences, null when the truck does not track geofences
+	private GeofenceTracker geofences;
+	private long locationPushIntervalMillis;
+	private long lastLocationPush;
+
+	private final static String PROPERTY_FIELD = "Property";
+	private final static String WINDOW_START_FIELD = "WindowStart";
+	private final static String WINDOW_END_FIELD = "WindowEnd";
+	private final static String COUNT_FIELD = "Count";
+	private final static String SUM_FIELD = "Sum";
+	private final static String MIN_FIELD = "Min";
+	private final static String MAX_FIELD = "Max";
+	private final static String AVERAGE_FIELD = "Average";
+	private final static String P50_FIELD = "P50";
+	private final static String P95_FIELD = "P95";
+	private final static String SUMMARY_EVENT = "TelemetrySummary";
+
+	// The DeliveryStop payloads and GetTruckReadings rows are written by ordinal; the field names and
+	// types are checked once, here, against the DeliveryTruckShape definition
+	private final static PayloadSchema TRUCK_SHAPE = PayloadSchema.of("DeliveryTruckShape", deliveryTruckShapeFields());
+	private final static PayloadSchema.DateTimeField TRUCK_ACTIV_TIME = TRUCK_SHAPE.dateTimeField(ACTIV_TIME_FIELD);
+	private final static PayloadSchema.StringField TRUCK_DRIVER_NAME = TRUCK_SHAPE.stringField(DRIVER_NAME_FIELD);
+	private final static PayloadSchema.StringField TRUCK_NAME = TRUCK_SHAPE.stringField(TRUCK_NAME_FIELD);
+	private final static PayloadSchema.NumberField TRUCK_TOTAL_DELIVERIES = TRUCK_SHAPE.numberField(TOTAL_DELIVERIES_FIELD);
+	private final static PayloadSchema.NumberField TRUCK_REMAIN_DELIVERIES = TRUCK_SHAPE.numberField(REMAIN_DELIVERIES_FIELD);
+	private final static PayloadSchema.LocationField TRUCK_LOCATION = TRUCK_SHAPE.locationField(LOCATION_FIELD);
+
+	// Set by setTelemetryAggregation, null when the truck only pushes raw telemetry
+	private WindowedAggregator speedWindows;
+	private WindowedAggregator deliveryWindows;
+	private WindowListener speedListener;
+	private WindowListener deliveryListener;
+	private FleetSummary fleetSummary;
+	private boolean pushRawSpeed = true;
 
 	public DeliveryTruckThing(String name, String description, ConnectedThingClient client) throws Exception {
+		this(name, description, client, SimulationRandoms.unseeded());
+	}
+
+	// Use a seeded SimulationRandom (see SimulationRandoms.forThing) to reproduce the same telemetry on every run
+	public DeliveryTruckThing(String name, String description, ConnectedThingClient client, SimulationRandom random) throws Exception {
 		super(name, description, client);
+		this.random = random;
+		this.outbound = OutboundPipeline.shared().register(this, OUTBOUND_EVENT_CAPACITY, OverflowPolicy.DROP_OLDEST, PRIORITIES);
+		this.services = new ServiceExecutor(name, DEFAULT_SERVICE_LIMITS);
+		configureService("GetTruckReadings", new ServiceLimits(4, 16, 5000L));
+		configureService("DeliveriesCalc", new ServiceLimits(4, 32, 5000L));
+		// GetBigString builds a large result, keep it from crowding out the cheap services
+		configureService("GetBigString", new ServiceLimits(1, 2, 5000L));
+		configureService("Shutdown", new ServiceLimits(1, 0, 5000L));
 
 		// Populate the thing shape with the properties, services, and events that are annotated in this code
 		super.initializeFromAnnotations();
 		this.init();
-		this.addPropertyChangeListener(this);
+		this.addPropertyChangeListener(writeCoalescer);
 	}
 
 	// From the VirtualThing class
@@ -88,17 +184,45 @@ public class DeliveryTruckThing extends VirtualThing implements Runnable, Virtua
 		super.syncProperties();
 	}
 
-	private void init() {
-		// Data Shape definition that is used by the delivery stop event
-		// The event only has one field, the message
+	// The fields of the DeliveryTruckShape, as declared by the DataShape in the entity export
+	private static FieldDefinitionCollection deliveryTruckShapeFields() {
         FieldDefinitionCollection fields = new FieldDefinitionCollection();
         fields.addFieldDefinition(new FieldDefinition(ACTIV_TIME_FIELD, BaseTypes.DATETIME));
         fields.addFieldDefinition(new FieldDefinition(DRIVER_NAME_FIELD, BaseTypes.STRING));
-        fields.addFieldDefinition(new FieldDefinition(TRUCK_NAME_FIELD, BaseTypes.BOOLEAN));
+        fields.addFieldDefinition(new FieldDefinition(TRUCK_NAME_FIELD, BaseTypes.STRING));
         fields.addFieldDefinition(new FieldDefinition(TOTAL_DELIVERIES_FIELD, BaseTypes.NUMBER));
         fields.addFieldDefinition(new FieldDefinition(REMAIN_DELIVERIES_FIELD, BaseTypes.NUMBER));
         fields.addFieldDefinition(new FieldDefinition(LOCATION_FIELD, BaseTypes.LOCATION));
-        defineDataShapeDefinition("DeliveryTruckShape", fields);
+        return fields;
+	}
+
+	private void init() {
+		// Data Shape definition that is used by the delivery stop event
+        defineDataShapeDefinition("DeliveryTruckShape", deliveryTruckShapeFields());
+
+        // Data Shape definition that is used by the geofence transition event
+        FieldDefinitionCollection geofenceFields = new FieldDefinitionCollection();
+        geofenceFields.addFieldDefinition(new FieldDefinition(ACTIV_TIME_FIELD, BaseTypes.DATETIME));
+        geofenceFields.addFieldDefinition(new FieldDefinition(TRUCK_NAME_FIELD, BaseTypes.STRING));
+        geofenceFields.addFieldDefinition(new FieldDefinition(ZONE_FIELD, BaseTypes.STRING));
+        geofenceFields.addFieldDefinition(new FieldDefinition(TRANSITION_FIELD, BaseTypes.STRING));
+        geofenceFields.addFieldDefinition(new FieldDefinition(LOCATION_FIELD, BaseTypes.LOCATION));
+        defineDataShapeDefinition("GeofenceTransitionShape", geofenceFields);
+
+        // Data Shape definition that is used by the telemetry summary event
+        FieldDefinitionCollection summaryFields = new FieldDefinitionCollection();
+        summaryFields.addFieldDefinition(new FieldDefinition(TRUCK_NAME_FIELD, BaseTypes.STRING));
+        summaryFields.addFieldDefinition(new FieldDefinition(PROPERTY_FIELD, BaseTypes.STRING));
+        summaryFields.addFieldDefinition(new FieldDefinition(WINDOW_START_FIELD, BaseTypes.DATETIME));
+        summaryFields.addFieldDefinition(new FieldDefinition(WINDOW_END_FIELD, BaseTypes.DATETIME));
+        summaryFields.addFieldDefinition(new FieldDefinition(COUNT_FIELD, BaseTypes.NUMBER));
+        summaryFields.addFieldDefinition(new FieldDefinition(SUM_FIELD, BaseTypes.NUMBER));
+        summaryFields.addFieldDefinition(new FieldDefinition(MIN_FIELD, BaseTypes.NUMBER));
+        summaryFields.addFieldDefinition(new FieldDefinition(MAX_FIELD, BaseTypes.NUMBER));
+        summaryFields.addFieldDefinition(new FieldDefinition(AVERAGE_FIELD, BaseTypes.NUMBER));
+        summaryFields.addFieldDefinition(new FieldDefinition(P50_FIELD, BaseTypes.NUMBER));
+        summaryFields.addFieldDefinition(new FieldDefinition(P95_FIELD, BaseTypes.NUMBER));
+        defineDataShapeDefinition("TelemetrySummaryShape", summaryFields);
 
         drivers = new ArrayList<String>();
         drivers.add("Max");
@@ -114,11 +238,11 @@ public class DeliveryTruckThing extends VirtualThing implements Runnable, Virtua
         // If the truck made all of it's deliveries
  		// Send the truck back out
  		if((deliveriesMade >= totalDeliveries) || (deliveriesLeft <= 0)) {
- 			System.out.println("Reset Deliveries For " + this.getName() +"!");
  			totalDeliveries = 500d;
  			deliveriesLeft = 500d;
  			deliveriesMade = 0d;
- 			driver = drivers.get((int) (0 + 9 * Math.random()));
+ 			logEvent(TruckEvent.DELIVERIES_RESET);
+ 			driver = drivers.get(random.nextInt(drivers.size()));
 
  			try {
 				super.setProperty(TOTAL_DELIVERIES_FIELD, totalDeliveries);
@@ -131,10 +255,43 @@ public class DeliveryTruckThing extends VirtualThing implements Runnable, Virtua
 			}
  		}
  		
- 		Double latitude = 40 + 45 * Math.random();
-		Double longitude = (70 + 80 * Math.random()) * -1;
-		location = new Location(longitude, latitude);
-		driver = drivers.get((int) (0 + 9 * Math.random()));
+ 		Double latitude = 40 + 45 * random.nextDouble();
+		Double longitude = (70 + 80 * random.nextDouble()) * -1;
+		location = new Location(latitude, longitude);
+		driver = drivers.get(random.nextInt(drivers.size()));
+	}
+
+	/**
+	 * @return The state of the truck to write to a snapshot, see TruckStateSnapshot.
+	 */
+	public synchronized TruckState captureState() {
+		return new TruckState(getName(), deliveriesMade, deliveriesLeft, totalDeliveries, driver,
+				location.getLatitude(), location.getLongitude(), location.getElevation());
+	}
+
+	/**
+	 * Carries on from a state read from a snapshot instead of the state init() started the truck with.
+	 * The restored values are staged for the next push, so the first push after a restart is correct.
+	 *
+	 * @param state The state of the truck when it was last shut down.
+	 */
+	public synchronized void restoreState(TruckState state) {
+		deliveriesMade = state.getDeliveriesMade();
+		deliveriesLeft = state.getDeliveriesLeft();
+		totalDeliveries = state.getTotalDeliveries();
+		if (state.getDriver() != null) {
+			driver = state.getDriver();
+		}
+		location = new Location();
+		location.setLatitude(state.getLatitude());
+		location.setLongitude(state.getLongitude());
+		location.setElevation(state.getElevation());
+
+		outbound.setProperty(TOTAL_DELIVERIES_FIELD, totalDeliveries);
+		outbound.setProperty(DELIVERIES_LEFT_FIELD, deliveriesLeft);
+		outbound.setProperty(DELIVERIES_MADE_FIELD, deliveriesMade);
+		outbound.setProperty(DRIVER_FIELD, driver);
+		outbound.setProperty(LOCATION_FIELD, location);
 	}
 
 	// The processScanRequest is called by the DeliveryTruckClient every scan cycle
@@ -142,92 +299,221 @@ public class DeliveryTruckThing extends VirtualThing implements Runnable, Virtua
 	public void processScanRequest() throws Exception {
 		// Execute the code for this simulation every scan
 		this.scanDevice();
-		this.updateSubscribedProperties(1000);
-		this.updateSubscribedEvents(1000);
+		// Push the new values and events on an outbound pipeline sender thread, the scan does not wait on the server
+		this.outbound.commit();
 	}
 
 	// Performs the logic for the delivery truck, occurs every scan cycle
-	public void scanDevice() throws Exception {
-		int counter = (int) (0 + 100000 * Math.random());
+	public synchronized void scanDevice() throws Exception {
+		int counter = random.nextInt(100000);
+		boolean delivered = false;
 
 		// If the truck made all of it's deliveries
  		// Send the truck back out
  		if((deliveriesMade >= totalDeliveries) || (deliveriesLeft <= 0)) {
- 			System.out.println("Reset Deliveries For " + this.getName() +"!");
  			totalDeliveries = 500d;
  			deliveriesLeft = 500d;
  			deliveriesMade = 0d;
- 			driver = drivers.get((int) (0 + 9 * Math.random()));
+ 			logEvent(TruckEvent.DELIVERIES_RESET);
+ 			driver = drivers.get(random.nextInt(drivers.size()));
 
  			try {
-				super.setProperty(TOTAL_DELIVERIES_FIELD, totalDeliveries);
-				super.setProperty(DELIVERIES_LEFT_FIELD, deliveriesLeft);
-				super.setProperty(DELIVERIES_MADE_FIELD, deliveriesMade);
-				super.setProperty(DRIVER_FIELD, driver);
+				outbound.setProperty(TOTAL_DELIVERIES_FIELD, totalDeliveries);
+				outbound.setProperty(DELIVERIES_LEFT_FIELD, deliveriesLeft);
+				outbound.setProperty(DELIVERIES_MADE_FIELD, deliveriesMade);
+				outbound.setProperty(DRIVER_FIELD, driver);
 			} catch (Exception e) {
 				LOG.error("Failed to write to the ThingWorx composer.");
 			}
  		}
 
 		if((counter % 3) == 0 || (counter % 5) == 0) { // A truck delivery stop
-			System.out.println(this.getName() +" Is Making A Delivery!!");
 			// Set the Speed property value if the DeliveriesMade value
 			// is equal to zero, raise speed
 			// is good enough, lower speed
 			if(deliveriesMade == 0){
 				// Set the Speed property value in the range of 80-140
-				speed = 80 + 140 * Math.random();
-				super.setProperty(SPEED_FIELD, speed);
+				setSpeed(80 + 140 * random.nextDouble());
 			}
 			else {
 				// Set the Speed property value in the range of 60-100
-				speed = 60 + 100 * Math.random();
-				super.setProperty(SPEED_FIELD, speed);
+				setSpeed(60 + 100 * random.nextDouble());
 			}
 
-			// Get the last location of the truck 
 			// Set location value based on new values
-			Double latitude = 40 + 45 * Math.random();
-			Double longitude = (70 + 80 * Math.random()) * -1;
-			location.setLatitude(latitude);
-			location.setLongitude(longitude);
+			// A new Location is used as the previous one may still be waiting to be pushed
+			Double latitude = 40 + 45 * random.nextDouble();
+			Double longitude = (70 + 80 * random.nextDouble()) * -1;
+			location = new Location(latitude, longitude);
+
+			// Zone transitions are pushed right away, while the raw location
+			// is only pushed at a low rate when the truck tracks geofences
+			long now = System.currentTimeMillis();
+			if (geofences != null) {
+				geofences.update(latitude, longitude, now, this);
+			}
+			if (geofences == null || now - lastLocationPush >= locationPushIntervalMillis) {
+				outbound.setProperty(LOCATION_FIELD, location);
+				lastLocationPush = now;
+			}
 
 			// Update deliveries
 			deliveriesMade++;
 			deliveriesLeft--;
-			super.setProperty(LOCATION_FIELD, location);
-			super.setProperty(DELIVERIES_LEFT_FIELD, deliveriesLeft);
-			super.setProperty(DELIVERIES_MADE_FIELD, deliveriesMade);
+			delivered = true;
+			outbound.setProperty(DELIVERIES_LEFT_FIELD, deliveriesLeft);
+			outbound.setProperty(DELIVERIES_MADE_FIELD, deliveriesMade);
+			logEvent(TruckEvent.DELIVERY);
 
 			// Set the event information of the defined data shape for a truck stop event
-			ValueCollection payload = new ValueCollection();
+			PayloadRecord payload = TRUCK_SHAPE.acquire();
 
 			// Set values to the fields
-			payload.SetLocationValue(LOCATION_FIELD, location);
-			payload.SetNumberValue(REMAIN_DELIVERIES_FIELD, deliveriesLeft);
-			payload.SetDateTimeValue(ACTIV_TIME_FIELD, new DatetimePrimitive(DateTime.now()));
-			payload.SetNumberValue(TOTAL_DELIVERIES_FIELD, totalDeliveries);
-			payload.SetStringValue(DRIVER_NAME_FIELD, driver);
-			payload.SetStringValue(TRUCK_NAME_FIELD, super.getName());
+			payload.set(TRUCK_LOCATION, location);
+			payload.set(TRUCK_REMAIN_DELIVERIES, deliveriesLeft);
+			payload.set(TRUCK_ACTIV_TIME, DateTime.now());
+			payload.set(TRUCK_TOTAL_DELIVERIES, totalDeliveries);
+			payload.set(TRUCK_DRIVER_NAME, driver);
+			payload.set(TRUCK_NAME, super.getName());
 
 			// This will trigger the 'DeliveryStop' of a remote thing 
-			// on the platform.
-			super.queueEvent("DeliveryStop", new DateTime(), payload);
+			// on the platform once the outbound pipeline pushes it.
+			outbound.queueEvent(DELIVERY_STOP_EVENT, new DateTime(), payload);
 		}
 		else if((counter % 4) == 0) { // Delivery truck stopped for other reason
-			System.out.println(this.getName() +" Has Stopped!");
 			// Set the Speed property value to 0
-			speed = 0d;
-			super.setProperty(SPEED_FIELD, speed);
+			setSpeed(0d);
+			logEvent(TruckEvent.STOPPED);
 		}
 		else if((counter % 2) == 0) { // Delivery truck running
-			System.out.println(this.getName() +" Is Moving!");
 			// Set the Speed property value in the range of 0-60
-			speed = 0 + 60 * Math.random();
-			super.setProperty(SPEED_FIELD, speed);
+			setSpeed(0 + 60 * random.nextDouble());
+			logEvent(TruckEvent.MOVING);
+		}
+
+		// Every scan is one reading of the speed and of the deliveries made since the last scan
+		if (speedWindows != null) {
+			long now = System.currentTimeMillis();
+			speedWindows.add(speed, now, speedListener);
+			deliveryWindows.add(delivered ? 1d : 0d, now, deliveryListener);
+		}
+	}
+
+	private void setSpeed(double value) throws Exception {
+		speed = value;
+		if (speedWindows == null || pushRawSpeed) {
+			outbound.setProperty(SPEED_FIELD, speed);
+		}
+	}
+
+	/**
+	 * Makes the truck summarize its Speed and deliveries over time windows and raise a TelemetrySummary
+	 * event for each window, in place of, or in addition to, pushing every raw reading.
+	 *
+	 * @param windowMillis The length of a window.
+	 * @param slideMillis How often a window is reported, equal to windowMillis for tumbling windows.
+	 * @param fleet Merges the summaries of the whole fleet, or null.
+	 * @param pushRawSpeed false to stop pushing the Speed property on every scan.
+	 */
+	public synchronized void setTelemetryAggregation(long windowMillis, long slideMillis, FleetSummary fleet, boolean pushRawSpeed) {
+		// Speeds are simulated between 0 and 220, summarized with a resolution of 2
+		this.speedWindows = new WindowedAggregator(windowMillis, slideMillis, new Summary(0d, 240d, 120));
+		this.deliveryWindows = new WindowedAggregator(windowMillis, slideMillis, new Summary(0d, 2d, 2));
+		this.speedListener = new SummaryPublisher(SPEED_FIELD);
+		this.deliveryListener = new SummaryPublisher(DELIVERIES_MADE_FIELD);
+		this.fleetSummary = fleet;
+		this.pushRawSpeed = pushRawSpeed;
+	}
+
+	// Raises the TelemetrySummary event of a window and adds it to the fleet summary
+	private class SummaryPublisher implements WindowListener {
+		private final String property;
+
+		SummaryPublisher(String property) {
+			this.property = property;
+		}
+
+		@Override
+		public void windowClosed(long start, long end, Summary summary) {
+			try {
+				ValueCollection payload = new ValueCollection();
+				payload.SetStringValue(TRUCK_NAME_FIELD, getName());
+				payload.SetStringValue(PROPERTY_FIELD, property);
+				payload.SetDateTimeValue(WINDOW_START_FIELD, new DatetimePrimitive(new DateTime(start)));
+				payload.SetDateTimeValue(WINDOW_END_FIELD, new DatetimePrimitive(new DateTime(end)));
+				payload.SetNumberValue(COUNT_FIELD, summary.getCount());
+				payload.SetNumberValue(SUM_FIELD, summary.getSum());
+				payload.SetNumberValue(MIN_FIELD, summary.getMin());
+				payload.SetNumberValue(MAX_FIELD, summary.getMax());
+				payload.SetNumberValue(AVERAGE_FIELD, summary.getAverage());
+				payload.SetNumberValue(P50_FIELD, summary.getPercentile(0.5d));
+				payload.SetNumberValue(P95_FIELD, summary.getPercentile(0.95d));
+				outbound.queueEvent(SUMMARY_EVENT, new DateTime(end), payload);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				LOG.error("Failed to queue the {} summary of {}", property, getName(), e);
+			}
+
+			if (fleetSummary != null) {
+				fleetSummary.merge(property, start, end, summary);
+			}
+		}
+	}
+
+	/**
+	 * Makes the truck test each new location against a set of zones and raise a GeofenceTransition
+	 * event when it enters, leaves or dwells in one of them.
+	 *
+	 * @param index The zones, shared by the whole fleet.
+	 * @param dwellMillis How long the truck must stay in a zone before DWELL is raised, 0 to never raise it.
+	 * @param locationPushIntervalMillis The minimum time between two pushes of the Location property.
+	 */
+	public synchronized void setGeofences(GeofenceIndex index, long dwellMillis, long locationPushIntervalMillis) {
+		this.geofences = new GeofenceTracker(index, dwellMillis);
+		this.locationPushIntervalMillis = locationPushIntervalMillis;
+	}
+
+	// Called by the GeofenceTracker from scanDevice, while the thing's lock is held
+	@Override
+	public void onTransition(Geofence fence, GeofenceTransition transition, double latitude, double longitude, long time) {
+		try {
+			ValueCollection payload = new ValueCollection();
+			payload.SetDateTimeValue(ACTIV_TIME_FIELD, new DatetimePrimitive(new DateTime(time)));
+			payload.SetStringValue(TRUCK_NAME_FIELD, super.getName());
+			payload.SetStringValue(ZONE_FIELD, fence.getName());
+			payload.SetStringValue(TRANSITION_FIELD, transition.name());
+			payload.SetLocationValue(LOCATION_FIELD, new Location(latitude, longitude));
+			outbound.queueEvent(GEOFENCE_EVENT, new DateTime(time), payload);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			LOG.error("Failed to queue the {} transition of {} for zone {}", transition, getName(), fence.getName(), e);
 		}
 	}
 
+	private void configureService(String service, ServiceLimits limits) {
+		services.configure(service, ServiceLimits.fromProperty("services." + service, limits));
+	}
+
+	// From the VirtualThing class
+	// Called for every service the platform invokes on this thing; runs the service within its limits
+	// so that a busy service fails fast instead of holding the thread the request arrived on
+	@Override
+	public InfoTable processServiceRequest(final String serviceName, final ValueCollection parameters) throws Exception {
+		return services.invoke(serviceName, new Callable<InfoTable>() {
+			@Override
+			public InfoTable call() throws Exception {
+				return DeliveryTruckThing.super.processServiceRequest(serviceName, parameters);
+			}
+		});
+	}
+
+	// Hands the state transition to the asynchronous scan event log, never blocks the scan
+	private void logEvent(TruckEvent event) {
+		ScanEventLog.shared().record(eventSampler, this.getName(), event, speed, deliveriesLeft);
+	}
+
 	@ThingworxServiceDefinition(name="DeliveriesCalc", description="Subtract two numbers to set property")
 	@ThingworxServiceResult(name=CommonPropertyNames.PROP_RESULT, description="Result", baseType="NUMBER")
 	public Double DeliveriesCalc( 
@@ -252,112 +538,160 @@ public class DeliveryTruckThing extends VirtualThing implements Runnable, Virtua
 	@ThingworxServiceDefinition(name="Shutdown", description="Shutdown service.")
 	@ThingworxServiceResult(name=CommonPropertyNames.PROP_RESULT, description="", baseType="NOTHING")
 	public synchronized void Shutdown() throws Exception {
+		if (this.shutdownAction == null) {
+			LOG.warn("Shutdown was invoked on {}, but no shutdown action is set", getName());
+			return;
+		}
 		// Should not have to do this, but guard against this method being called more than once.
 		if(this._shutdownThread == null) {
-			// Create a thread for shutting down and start the thread
-			this._shutdownThread = new Thread(this);
+			// Shut down on another thread, so the platform gets its reply before the clients disconnect
+			this._shutdownThread = new Thread(this.shutdownAction, "DeliveryTruckThing-shutdown");
 			this._shutdownThread.start();
 		}
 	}
 
+	/**
+	 * Sets what the platform's Shutdown service does: typically pushing the pending updates, saving the
+	 * state of the fleet and disconnecting, the same as when the process is stopped.
+	 *
+	 * @param shutdownAction Run once, on its own thread, when Shutdown is invoked.
+	 */
+	public synchronized void setShutdownAction(Runnable shutdownAction) {
+		this.shutdownAction = shutdownAction;
+	}
+
 	@ThingworxServiceDefinition(name="GetTruckReadings", description="Get Truck Readings")
 	@ThingworxServiceResult(name=CommonPropertyNames.PROP_RESULT, description="Result", baseType="INFOTABLE", aspects={"dataShape:DeliveryTruckShape"})
 	public InfoTable GetTruckReadings(String truck, String driver) {		
 		InfoTable result = new InfoTable(getDataShapeDefinition("DeliveryTruckShape"));
-		ValueCollection entry = new ValueCollection();
+		PayloadRecord entry = TRUCK_SHAPE.acquire();
 		DateTime now = DateTime.now();
 		Location location = new Location(40.8447819d, -73.8648268d, 14d);
 
 		try {			
 			//entry 1
 			entry.clear();
-			entry.SetStringValue(DRIVER_NAME_FIELD, driver);
-			entry.SetDateTimeValue(ACTIV_TIME_FIELD, now.plusDays(1));
-			entry.SetStringValue(TRUCK_NAME_FIELD, truck);
-			entry.SetNumberValue(TOTAL_DELIVERIES_FIELD, 521);
-			entry.SetNumberValue(REMAIN_DELIVERIES_FIELD, 521);
-			entry.SetLocationValue(LOCATION_FIELD, location);
-			result.addRow(entry.clone());
+			entry.set(TRUCK_DRIVER_NAME, driver);
+			entry.set(TRUCK_ACTIV_TIME, now.plusDays(1));
+			entry.set(TRUCK_NAME, truck);
+			entry.set(TRUCK_TOTAL_DELIVERIES, 521);
+			entry.set(TRUCK_REMAIN_DELIVERIES, 521);
+			entry.set(TRUCK_LOCATION, location);
+			result.addRow(entry.toValueCollection());
 			
 			location = new Location(40.71499674, -73.95378113d, 4d);
 
 			//entry 2
 			entry.clear();
-			entry.SetStringValue(DRIVER_NAME_FIELD, driver);
-			entry.SetDateTimeValue(ACTIV_TIME_FIELD, now.plusDays(2));
-			entry.SetStringValue(TRUCK_NAME_FIELD, truck);
-			entry.SetNumberValue(TOTAL_DELIVERIES_FIELD, 521);
-			entry.SetNumberValue(REMAIN_DELIVERIES_FIELD, 515);
-			entry.SetLocationValue(LOCATION_FIELD, location);
-			result.addRow(entry.clone());
+			entry.set(TRUCK_DRIVER_NAME, driver);
+			entry.set(TRUCK_ACTIV_TIME, now.plusDays(2));
+			entry.set(TRUCK_NAME, truck);
+			entry.set(TRUCK_TOTAL_DELIVERIES, 521);
+			entry.set(TRUCK_REMAIN_DELIVERIES, 515);
+			entry.set(TRUCK_LOCATION, location);
+			result.addRow(entry.toValueCollection());
 			
 			location = new Location(40.73685215d, -74.19410706d, 54d);
 
 			//entry 3
 			entry.clear();
-			entry.SetStringValue(DRIVER_NAME_FIELD, driver);
-			entry.SetDateTimeValue(ACTIV_TIME_FIELD, now.plusDays(3));
-			entry.SetStringValue(TRUCK_NAME_FIELD, truck);
-			entry.SetNumberValue(TOTAL_DELIVERIES_FIELD, 521);
-			entry.SetNumberValue(REMAIN_DELIVERIES_FIELD, 500);
-			entry.SetLocationValue(LOCATION_FIELD, location);
-			result.addRow(entry.clone());
+			entry.set(TRUCK_DRIVER_NAME, driver);
+			entry.set(TRUCK_ACTIV_TIME, now.plusDays(3));
+			entry.set(TRUCK_NAME, truck);
+			entry.set(TRUCK_TOTAL_DELIVERIES, 521);
+			entry.set(TRUCK_REMAIN_DELIVERIES, 500);
+			entry.set(TRUCK_LOCATION, location);
+			result.addRow(entry.toValueCollection());
 			
 			location = new Location(41.02549938d, -73.64341736d, 43d);
 
 			//entry 4
 			entry.clear();
-			entry.SetStringValue(DRIVER_NAME_FIELD, driver);
-			entry.SetDateTimeValue(ACTIV_TIME_FIELD, now.plusDays(4));
-			entry.SetStringValue(TRUCK_NAME_FIELD, truck);
-			entry.SetNumberValue(TOTAL_DELIVERIES_FIELD, 521);
-			entry.SetNumberValue(REMAIN_DELIVERIES_FIELD, 440);
-			entry.SetLocationValue(LOCATION_FIELD, location);
-			result.addRow(entry.clone());
+			entry.set(TRUCK_DRIVER_NAME, driver);
+			entry.set(TRUCK_ACTIV_TIME, now.plusDays(4));
+			entry.set(TRUCK_NAME, truck);
+			entry.set(TRUCK_TOTAL_DELIVERIES, 521);
+			entry.set(TRUCK_REMAIN_DELIVERIES, 440);
+			entry.set(TRUCK_LOCATION, location);
+			result.addRow(entry.toValueCollection());
 			
 			location = new Location(40.91662589d, -72.66700745d, 3d);
 
 			//entry 5
 			entry.clear();
-			entry.SetStringValue(DRIVER_NAME_FIELD, driver);
-			entry.SetDateTimeValue(ACTIV_TIME_FIELD, now.plusDays(5));
-			entry.SetStringValue(TRUCK_NAME_FIELD, truck);
-			entry.SetNumberValue(TOTAL_DELIVERIES_FIELD, 521);
-			entry.SetNumberValue(REMAIN_DELIVERIES_FIELD, 315);
-			entry.SetLocationValue(LOCATION_FIELD, location);
-			result.addRow(entry.clone());
+			entry.set(TRUCK_DRIVER_NAME, driver);
+			entry.set(TRUCK_ACTIV_TIME, now.plusDays(5));
+			entry.set(TRUCK_NAME, truck);
+			entry.set(TRUCK_TOTAL_DELIVERIES, 521);
+			entry.set(TRUCK_REMAIN_DELIVERIES, 315);
+			entry.set(TRUCK_LOCATION, location);
+			result.addRow(entry.toValueCollection());
 		} 
 		catch (Exception e) {
-			e.printStackTrace();
+			LOG.error("Failed to build the truck readings.", e);
+		}
+		finally {
+			entry.release();
 		}
 
 		return result;
 	}
 
+	// Applies a batch of property writes from the PropertyWriteCoalescer. Holding the thing's lock
+	// keeps a scan from seeing only part of a batch.
 	@Override
-	public void run() {
-		try {
-			this.processScanRequest();
-		} catch (Exception x) {
-			// Not much can be done if there is an exception here
-			// In the case of production code should at least log the error
+	public synchronized void propertiesChanged(Map<String, IPrimitiveType> values) {
+		for (Map.Entry<String, IPrimitiveType> entry : values.entrySet()) {
+			String name = entry.getKey();
+			IPrimitiveType value = entry.getValue();
+
+			if (DELIVERIES_MADE_FIELD.equals(name)) {
+				this.deliveriesMade = (double) value.getValue();
+			} else if(DELIVERIES_LEFT_FIELD.equals(name)){
+				this.deliveriesLeft = (double) value.getValue();
+			} else if(TOTAL_DELIVERIES_FIELD.equals(name)){
+				this.totalDeliveries = (double) value.getValue();
+			} else if(DRIVER_FIELD.equals(name)){
+				this.driver = value.getStringValue();
+			} else if(SPEED_FIELD.equals(name)){
+				this.speed = (double) value.getValue();
+			} else if(LOCATION_FIELD.equals(name)){
+				this.location = (Location) value.getValue();
+			}
 		}
 	}
 
-	@Override
-	public void propertyChangeEventReceived(VirtualThingPropertyChangeEvent event) {
-		if (DELIVERIES_MADE_FIELD.equals(event.getPropertyDefinition().getName())) {
-			this.deliveriesMade = (double) event.getPrimitiveValue().getValue();
-		} else if(DELIVERIES_LEFT_FIELD.equals(event.getPropertyDefinition().getName())){
-			this.deliveriesLeft = (double) event.getPrimitiveValue().getValue();
-		} else if(TOTAL_DELIVERIES_FIELD.equals(event.getPropertyDefinition().getName())){
-			this.totalDeliveries = (double) event.getPrimitiveValue().getValue();
-		} else if(DRIVER_FIELD.equals(event.getPropertyDefinition().getName())){
-			this.driver = event.getPrimitiveValue().getStringValue();
-		} else if(SPEED_FIELD.equals(event.getPropertyDefinition().getName())){
-			this.speed = (double) event.getPrimitiveValue().getValue();
-		} else if(LOCATION_FIELD.equals(event.getPropertyDefinition().getName())){
-			this.location = (Location) event.getPrimitiveValue().getValue();
-		}
+	/**
+	 * Releases what the truck holds once it is unbound for good or replaced by a copy on another client:
+	 * applies the property writes still waiting, cancels its service invocations and drops the updates not
+	 * pushed yet. Capture the state first to carry it over.
+	 */
+	public void release() {
+		removePropertyChangeListener(writeCoalescer);
+		writeCoalescer.flush();
+		services.shutdown();
+		int dropped = outbound.discard();
+		LOG.debug("Released {}, dropping {} events not pushed yet", getName(), dropped);
+	}
+
+	/**
+	 * @return The coalescer applying this thing's property writes, for its callback and latency counters.
+	 */
+	public PropertyWriteCoalescer getWriteCoalescer() {
+		return writeCoalescer;
+	}
+
+	/**
+	 * @return The queue holding this thing's updates until they are pushed, for its depth and drop counters.
+	 */
+	public OutboundQueue getOutboundQueue() {
+		return outbound;
+	}
+
+	/**
+	 * @return The executor running this thing's services, for its latency and rejection counters.
+	 */
+	public ServiceExecutor getServiceExecutor() {
+		return services;
 	}
 }
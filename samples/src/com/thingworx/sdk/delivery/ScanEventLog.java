@@ -0,0 +1,288 @@
+package com.thingworx.sdk.delivery;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An asynchronous log for the state transitions of the simulated delivery trucks.
+ *
+ * Scan threads copy each event into a pre-allocated, lock-free ring buffer and return immediately;
+ * a single background thread drains the buffer into a {@link ScanEventSink}. Recording never blocks:
+ * when the buffer is full the event is dropped and counted. Each thing also owns a {@link Sampler}
+ * that limits how often it records, so a chatty truck cannot flood the log.
+ */
+public class ScanEventLog {
+	private static final Logger LOG = LoggerFactory.getLogger(ScanEventLog.class);
+
+	private final static int DEFAULT_CAPACITY = 8192;
+	// How often an idle writer yields to the scan threads before parking, so a burst is drained in batches
+	private final static int IDLE_YIELDS = 64;
+
+	private static volatile ScanEventLog shared;
+
+	private final int mask;
+	// Slot sequence numbers of the bounded multi-producer queue, see recordEvent/drain
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+
+	private final long[] timestamps;
+	private final String[] thingNames;
+	private final TruckEvent[] events;
+	private final double[] speeds;
+	private final double[] deliveriesLeft;
+	private final int[] suppressed;
+
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final ScanEventSink sink;
+	private final Thread writer;
+	private volatile boolean running = true;
+	// Set while the writer is about to park or parked, producers then unpark it
+	private volatile boolean parked;
+
+	/**
+	 * @param sink Where the records are written.
+	 * @param capacity The number of records that can wait to be written, rounded up to a power of two.
+	 */
+	public ScanEventLog(ScanEventSink sink, int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		for (int index = 0; index < size; index++) {
+			sequences.set(index, index);
+		}
+		this.timestamps = new long[size];
+		this.thingNames = new String[size];
+		this.events = new TruckEvent[size];
+		this.speeds = new double[size];
+		this.deliveriesLeft = new double[size];
+		this.suppressed = new int[size];
+
+		this.sink = sink;
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "ScanEventLog-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * @return The log shared by all delivery trucks, writing to SLF4J unless another log was installed.
+	 */
+	public static ScanEventLog shared() {
+		ScanEventLog log = shared;
+		if (log == null) {
+			synchronized (ScanEventLog.class) {
+				log = shared;
+				if (log == null) {
+					log = new ScanEventLog(new Slf4jScanEventSink(), DEFAULT_CAPACITY);
+					shared = log;
+				}
+			}
+		}
+		return log;
+	}
+
+	/**
+	 * Replaces the shared log. The previous shared log, if any, is closed.
+	 *
+	 * @param log The log to share from now on.
+	 */
+	public static void install(ScanEventLog log) {
+		ScanEventLog previous;
+		synchronized (ScanEventLog.class) {
+			previous = shared;
+			shared = log;
+		}
+		if (previous != null && previous != log) {
+			previous.close();
+		}
+	}
+
+	/**
+	 * Records an event if the thing's sampler allows it. Never blocks.
+	 *
+	 * @param sampler The sampler owned by the thing.
+	 * @param thingName The name of the thing.
+	 * @param event The state transition.
+	 * @param speed The speed of the truck after the transition.
+	 * @param left The deliveries left after the transition.
+	 * @return true if the event was queued, false if it was sampled out or the log was full.
+	 */
+	public boolean record(Sampler sampler, String thingName, TruckEvent event, double speed, double left) {
+		long now = System.currentTimeMillis();
+		if (!sampler.accept(now)) {
+			return false;
+		}
+
+		if (!recordEvent(now, thingName, event, speed, left, sampler.takeSuppressed())) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	private boolean recordEvent(long now, String thingName, TruckEvent event, double speed, double left, int skipped) {
+		long position = tail.get();
+		int index;
+		for (;;) {
+			index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				// The writer has not freed this slot yet, the buffer is full
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+
+		timestamps[index] = now;
+		thingNames[index] = thingName;
+		events[index] = event;
+		speeds[index] = speed;
+		deliveriesLeft[index] = left;
+		suppressed[index] = skipped;
+		// Publishes the fields above to the writer thread, ordered before reading parked
+		sequences.set(index, position + 1);
+		recorded.incrementAndGet();
+		if (parked) {
+			LockSupport.unpark(writer);
+		}
+		return true;
+	}
+
+	private boolean hasNext() {
+		return sequences.get((int) (head & mask)) == head + 1;
+	}
+
+	private int drain() {
+		int count = 0;
+		for (;;) {
+			if (!hasNext()) {
+				return count;
+			}
+			int index = (int) (head & mask);
+
+			try {
+				sink.write(timestamps[index], thingNames[index], events[index], speeds[index], deliveriesLeft[index], suppressed[index]);
+			} catch (Exception e) {
+				LOG.error("Failed to write a scan event.", e);
+			}
+
+			thingNames[index] = null;
+			sequences.lazySet(index, head + mask + 1);
+			head++;
+			count++;
+		}
+	}
+
+	private void writeLoop() {
+		while (running) {
+			if (drain() > 0) {
+				flushSink();
+				continue;
+			}
+			for (int yields = 0; yields < IDLE_YIELDS && !hasNext(); yields++) {
+				Thread.yield();
+			}
+			if (hasNext()) {
+				continue;
+			}
+			parked = true;
+			// A record published before parked was set is not followed by an unpark, check once more
+			if (running && !hasNext()) {
+				LockSupport.park(this);
+			}
+			parked = false;
+		}
+		drain();
+		flushSink();
+		try {
+			sink.close();
+		} catch (Exception e) {
+			LOG.error("Failed to close the scan event sink.", e);
+		}
+	}
+
+	private void flushSink() {
+		try {
+			sink.flush();
+		} catch (Exception e) {
+			LOG.error("Failed to flush the scan event sink.", e);
+		}
+	}
+
+	/**
+	 * Stops the writer thread after the queued records have been written.
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return The number of records queued since the log was created.
+	 */
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+
+	/**
+	 * @return The number of records dropped because the buffer was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Limits how often a single thing records events. Each thing owns its own sampler and only uses it
+	 * from the thread that is scanning it, so there is no contention between things.
+	 */
+	public static class Sampler {
+		private final long intervalMillis;
+		private long nextAllowed;
+		private int skipped;
+
+		/**
+		 * @param intervalMillis The minimum time between two records of the thing, 0 to record every event.
+		 */
+		public Sampler(long intervalMillis) {
+			this.intervalMillis = intervalMillis;
+		}
+
+		boolean accept(long now) {
+			if (now < nextAllowed) {
+				skipped++;
+				return false;
+			}
+			nextAllowed = now + intervalMillis;
+			return true;
+		}
+
+		int takeSuppressed() {
+			int result = skipped;
+			skipped = 0;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.thingworx.sdk.delivery;
+
+import java.io.IOException;
+
+/**
+ * Receives the records drained from a {@link ScanEventLog}. A sink is only ever called from the
+ * log's writer thread, so implementations do not need to be thread safe.
+ */
+public interface ScanEventSink {
+	/**
+	 * @param timestamp The time the event happened, in milliseconds since the epoch.
+	 * @param thingName The name of the thing that raised the event.
+	 * @param event The state transition.
+	 * @param speed The speed of the truck after the transition.
+	 * @param deliveriesLeft The deliveries left after the transition.
+	 * @param suppressed How many events of this thing were sampled out since its previous record.
+	 * @throws IOException If the record could not be written.
+	 */
+	void write(long timestamp, String thingName, TruckEvent event, double speed, double deliveriesLeft, int suppressed) throws IOException;
+
+	/**
+	 * Called when the log has been drained, an opportunity to flush buffered records.
+	 *
+	 * @throws IOException If the records could not be flushed.
+	 */
+	void flush() throws IOException;
+
+	void close() throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.thingworx.sdk.delivery;
+
+/**
+ * The source of randomness used to simulate a delivery truck. Each DeliveryTruckThing owns its own
+ * instance, so scans running on different threads never share random number generator state.
+ * Instances are only used by the thing that owns them and do not need to be thread safe.
+ */
+public interface SimulationRandom {
+	/**
+	 * @return A uniformly distributed value between 0.0 (inclusive) and 1.0 (exclusive).
+	 */
+	double nextDouble();
+
+	/**
+	 * @param bound The upper bound (exclusive), must be positive.
+	 * @return A uniformly distributed value between 0 (inclusive) and bound (exclusive).
+	 */
+	int nextInt(int bound);
+}
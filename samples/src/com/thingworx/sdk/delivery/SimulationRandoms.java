@@ -0,0 +1,89 @@
+package com.thingworx.sdk.delivery;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Factory methods for the {@link SimulationRandom} implementations.
+ */
+public class SimulationRandoms {
+	private final static long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private final static long FNV_PRIME = 0x100000001b3L;
+
+	private SimulationRandoms() {
+	}
+
+	/**
+	 * Creates a reproducible source for a single thing. The stream depends only on the fleet seed and
+	 * the thing name, so the same seed reproduces the same telemetry for every truck no matter in which
+	 * order, or on which thread, the trucks are created. The name is hashed to 64 bits, so names whose
+	 * String hashCodes collide still get different streams.
+	 *
+	 * @param seed The seed shared by the whole fleet.
+	 * @param thingName The name of the thing that will own the source.
+	 * @return A source backed by a SplittableRandom dedicated to the thing.
+	 */
+	public static SimulationRandom forThing(long seed, String thingName) {
+		return new SplittableSimulationRandom(new SplittableRandom(mix64(seed + GOLDEN_GAMMA * hash64(thingName))));
+	}
+
+	/**
+	 * Creates a source that is not reproducible but never contends with other threads. This is the
+	 * default for things created without a seed.
+	 *
+	 * @return A source backed by the calling thread's ThreadLocalRandom.
+	 */
+	public static SimulationRandom unseeded() {
+		return ThreadLocalSimulationRandom.INSTANCE;
+	}
+
+	// 64-bit FNV-1a of the UTF-8 bytes of the name
+	private static long hash64(String name) {
+		long hash = FNV_OFFSET_BASIS;
+		for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+			hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	// The finalizer of SplittableRandom/SplitMix64, spreads seeds that only differ in a few bits
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static class SplittableSimulationRandom implements SimulationRandom {
+		private final SplittableRandom random;
+
+		SplittableSimulationRandom(SplittableRandom random) {
+			this.random = random;
+		}
+
+		@Override
+		public double nextDouble() {
+			return random.nextDouble();
+		}
+
+		@Override
+		public int nextInt(int bound) {
+			return random.nextInt(bound);
+		}
+	}
+
+	private static class ThreadLocalSimulationRandom implements SimulationRandom {
+		static final ThreadLocalSimulationRandom INSTANCE = new ThreadLocalSimulationRandom();
+
+		@Override
+		public double nextDouble() {
+			return ThreadLocalRandom.current().nextDouble();
+		}
+
+		@Override
+		public int nextInt(int bound) {
+			return ThreadLocalRandom.current().nextInt(bound);
+		}
+	}
+}
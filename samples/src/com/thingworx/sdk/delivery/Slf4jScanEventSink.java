@@ -0,0 +1,28 @@
+package com.thingworx.sdk.delivery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes scan events to SLF4J at INFO level.
+ */
+public class Slf4jScanEventSink implements ScanEventSink {
+	private static final Logger LOG = LoggerFactory.getLogger(DeliveryTruckThing.class);
+
+	@Override
+	public void write(long timestamp, String thingName, TruckEvent event, double speed, double deliveriesLeft, int suppressed) {
+		if (suppressed > 0) {
+			LOG.info("{} {}! speed={} deliveriesLeft={} (+{} sampled out)", thingName, event.getDescription(), speed, deliveriesLeft, suppressed);
+		} else {
+			LOG.info("{} {}! speed={} deliveriesLeft={}", thingName, event.getDescription(), speed, deliveriesLeft);
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,21 @@
+package com.thingworx.sdk.delivery;
+
+/**
+ * The state transitions of a simulated delivery truck that are recorded in the {@link ScanEventLog}.
+ */
+public enum TruckEvent {
+	DELIVERIES_RESET("Reset Deliveries"),
+	DELIVERY("Is Making A Delivery"),
+	STOPPED("Has Stopped"),
+	MOVING("Is Moving");
+
+	private final String description;
+
+	TruckEvent(String description) {
+		this.description = description;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+}
@@ -0,0 +1,62 @@
+package com.thingworx.sdk.delivery;
+
+/**
+ * The state of a DeliveryTruckThing that survives a restart, see {@link TruckStateSnapshot}.
+ */
+public class TruckState {
+	private final String name;
+	private final double deliveriesMade;
+	private final double deliveriesLeft;
+	private final double totalDeliveries;
+	private final String driver;
+	private final double latitude;
+	private final double longitude;
+	private final double elevation;
+
+	public TruckState(String name, double deliveriesMade, double deliveriesLeft, double totalDeliveries, String driver,
+			double latitude, double longitude, double elevation) {
+		this.name = name;
+		this.deliveriesMade = deliveriesMade;
+		this.deliveriesLeft = deliveriesLeft;
+		this.totalDeliveries = totalDeliveries;
+		this.driver = driver;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.elevation = elevation;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public double getDeliveriesMade() {
+		return deliveriesMade;
+	}
+
+	public double getDeliveriesLeft() {
+		return deliveriesLeft;
+	}
+
+	public double getTotalDeliveries() {
+		return totalDeliveries;
+	}
+
+	/**
+	 * @return The driver's name, or null if the truck had no driver.
+	 */
+	public String getDriver() {
+		return driver;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public double getElevation() {
+		return elevation;
+	}
+}
@@ -0,0 +1,148 @@
+package com.thingworx.sdk.delivery;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact binary snapshot of the state of a fleet of delivery trucks, written on a graceful
+ * shutdown and restored on the next start so that the trucks carry on where they stopped instead of
+ * starting over from init().
+ *
+ * The file is a header (magic, version, time written, record count) followed by one record per truck:
+ * name, deliveries made, deliveries left, total deliveries, driver, latitude, longitude and elevation.
+ * Strings are written as an unsigned short length and UTF-8 bytes, a null driver has length 0xFFFF.
+ * A snapshot is written to a temporary file that replaces the previous snapshot only once complete,
+ * and it is read through a memory mapping, in one pass, before any truck is created.
+ */
+public class TruckStateSnapshot {
+	private final static int MAGIC = 0x54534e50; // "TSNP"
+	private final static int VERSION = 1;
+	private final static int NULL_STRING = 0xFFFF;
+	private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+	private TruckStateSnapshot() {
+	}
+
+	/**
+	 * Writes the state of a set of trucks, replacing any previous snapshot at the same path.
+	 *
+	 * @param path The snapshot file.
+	 * @param states The states to write.
+	 * @throws IOException If the snapshot could not be written, the previous snapshot is then left untouched.
+	 */
+	public static void write(String path, Collection<TruckState> states) throws IOException {
+		Path target = Paths.get(path).toAbsolutePath();
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary.toFile()), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeInt(states.size());
+			for (TruckState state : states) {
+				writeString(out, state.getName());
+				out.writeDouble(state.getDeliveriesMade());
+				out.writeDouble(state.getDeliveriesLeft());
+				out.writeDouble(state.getTotalDeliveries());
+				writeString(out, state.getDriver());
+				out.writeDouble(state.getLatitude());
+				out.writeDouble(state.getLongitude());
+				out.writeDouble(state.getElevation());
+			}
+		} finally {
+			out.close();
+		}
+
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a snapshot.
+	 *
+	 * @param path The snapshot file.
+	 * @return The states in the snapshot, keyed by truck name, or an empty map if there is no snapshot.
+	 * @throws IOException If the snapshot could not be read or is not a valid snapshot.
+	 */
+	public static Map<String, TruckState> load(String path) throws IOException {
+		Path source = Paths.get(path);
+		if (!Files.exists(source)) {
+			return new HashMap<String, TruckState>();
+		}
+
+		RandomAccessFile file = new RandomAccessFile(source.toFile(), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(buffer);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static Map<String, TruckState> read(ByteBuffer buffer) throws IOException {
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a truck state snapshot");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported truck state snapshot version " + version);
+			}
+			buffer.getLong();
+
+			int count = buffer.getInt();
+			Map<String, TruckState> states = new HashMap<String, TruckState>(count * 4 / 3 + 1);
+			for (int index = 0; index < count; index++) {
+				String name = readString(buffer);
+				double deliveriesMade = buffer.getDouble();
+				double deliveriesLeft = buffer.getDouble();
+				double totalDeliveries = buffer.getDouble();
+				String driver = readString(buffer);
+				states.put(name, new TruckState(name, deliveriesMade, deliveriesLeft, totalDeliveries, driver,
+						buffer.getDouble(), buffer.getDouble(), buffer.getDouble()));
+			}
+			return states;
+		} catch (RuntimeException e) {
+			// BufferUnderflowException, or a negative count, from a truncated or corrupted file
+			throw new IOException("Truncated or corrupted truck state snapshot", e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeShort(NULL_STRING);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF_8);
+		if (bytes.length >= NULL_STRING) {
+			throw new IOException("String too long for a truck state snapshot");
+		}
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		if (length == NULL_STRING) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
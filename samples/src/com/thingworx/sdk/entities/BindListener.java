@@ -0,0 +1,21 @@
+package com.thingworx.sdk.entities;
+
+import java.util.List;
+
+import com.thingworx.communications.client.things.VirtualThing;
+
+/**
+ * Follows the progress of a {@link BulkBinder}.
+ */
+public interface BindListener {
+	/**
+	 * Called on the binding thread each time a batch of Things has been bound. The Things of the batch
+	 * may be scanned from now on, while the rest of the population is still being bound.
+	 *
+	 * @param batch The Things just bound.
+	 * @param bound The number of Things bound so far.
+	 * @param failed The number of Things that could not be created or bound so far.
+	 * @param total The number of Things to bind.
+	 */
+	void batchBound(List<VirtualThing> batch, int bound, int failed, int total);
+}
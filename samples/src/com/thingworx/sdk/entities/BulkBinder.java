@@ -0,0 +1,157 @@
+package com.thingworx.sdk.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thingworx.communications.client.ConnectedThingClient;
+import com.thingworx.communications.client.things.VirtualThing;
+import com.thingworx.sdk.common.ExecutorFactory;
+
+/**
+ * Creates and binds a large population of Things up front, instead of one at a time. The VirtualThings
+ * are constructed in parallel, annotation processing and shape definitions included, while the binding
+ * thread registers the ones already constructed with the client in batches, one bindThings call per
+ * batch. A batch is bound once it is full, or as soon as no further Thing is constructed yet, so the
+ * first Things are bound early and batches grow while a bind is waiting on the server. A
+ * {@link BindListener} hears of every batch as soon as it is bound, so its Things can be scanned while
+ * the rest are still being constructed and bound.
+ *
+ * A Thing that cannot be created is logged and skipped. When a batch fails to bind, its Things are bound
+ * one by one so that a single bad Thing does not take the whole batch down with it.
+ *
+ * The {@link ThingFactory} is called from several threads at once and must be thread safe.
+ */
+public class BulkBinder {
+	private static final Logger LOG = LoggerFactory.getLogger(BulkBinder.class);
+
+	private final ExecutorFactory executors;
+	private final int threads;
+	private final int batchSize;
+
+	/**
+	 * @param executors Creates the executor the Things are constructed on, for example with virtual threads.
+	 * @param threads The number of Things constructed at the same time.
+	 * @param batchSize The most Things registered with one bindThings call.
+	 */
+	public BulkBinder(ExecutorFactory executors, int threads, int batchSize) {
+		if (threads < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("At least one thread and a batch size of one are required");
+		}
+		this.executors = executors;
+		this.threads = threads;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Creates the VirtualThings of a set of entries and binds them to a client, returning once every
+	 * Thing has been bound or has failed.
+	 *
+	 * @param client The client to bind the Things to.
+	 * @param factory Creates the VirtualThing for an entry.
+	 * @param entries The Things to create and bind.
+	 * @param listener Hears of every batch bound, may be null.
+	 * @return The number of Things bound.
+	 * @throws InterruptedException If interrupted while waiting for the Things to be constructed.
+	 */
+	public int bind(final ConnectedThingClient client, final ThingFactory factory, List<ThingEntry> entries, BindListener listener)
+			throws InterruptedException {
+		Progress progress = new Progress(entries.size(), listener);
+		ExecutorService constructors = executors.create("BulkBinder-construct", threads);
+		try {
+			CompletionService<VirtualThing> created = new ExecutorCompletionService<VirtualThing>(constructors);
+			for (final ThingEntry entry : entries) {
+				created.submit(new Callable<VirtualThing>() {
+					@Override
+					public VirtualThing call() throws Exception {
+						return factory.create(entry, client);
+					}
+				});
+			}
+
+			// Things are bound in the order their construction completes
+			List<VirtualThing> batch = new ArrayList<VirtualThing>();
+			for (int remaining = entries.size(); remaining > 0; remaining--) {
+				Future<VirtualThing> next = created.poll();
+				if (next == null) {
+					// Nothing more is constructed yet, bind what is while the rest are being constructed
+					if (!batch.isEmpty()) {
+						progress.bound(batch, bindBatch(client, batch));
+						batch = new ArrayList<VirtualThing>();
+					}
+					next = created.take();
+				}
+
+				try {
+					batch.add(next.get());
+				} catch (ExecutionException e) {
+					progress.failed();
+					LOG.error("Failed to create a Thing for binding", e.getCause());
+				}
+				if (batch.size() == batchSize) {
+					progress.bound(batch, bindBatch(client, batch));
+					batch = new ArrayList<VirtualThing>();
+				}
+			}
+			if (!batch.isEmpty()) {
+				progress.bound(batch, bindBatch(client, batch));
+			}
+		} finally {
+			constructors.shutdownNow();
+		}
+		return progress.bound;
+	}
+
+	// Returns the Things of the batch that were bound
+	private static List<VirtualThing> bindBatch(ConnectedThingClient client, List<VirtualThing> batch) {
+		try {
+			client.bindThings(batch);
+			return batch;
+		} catch (Exception eBatch) {
+			LOG.warn("Failed to bind a batch of {} Things, binding them one by one", batch.size(), eBatch);
+		}
+
+		List<VirtualThing> bound = new ArrayList<VirtualThing>(batch.size());
+		for (VirtualThing thing : batch) {
+			try {
+				client.bindThing(thing);
+				bound.add(thing);
+			} catch (Exception e) {
+				LOG.error("Failed to bind {}", thing.getName(), e);
+			}
+		}
+		return bound;
+	}
+
+	private static final class Progress {
+		final int total;
+		final BindListener listener;
+		int bound;
+		int failed;
+
+		Progress(int total, BindListener listener) {
+			this.total = total;
+			this.listener = listener;
+		}
+
+		void failed() {
+			failed++;
+		}
+
+		void bound(List<VirtualThing> batch, List<VirtualThing> batchBound) {
+			bound += batchBound.size();
+			failed += batch.size() - batchBound.size();
+			if (listener != null) {
+				listener.batchBound(batchBound, bound, failed, total);
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.thingworx.sdk.entities;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thingworx.communications.client.things.VirtualThing;
+
+/**
+ * An index of the Things found in a ThingWorx entity export (for example Entities/ThingWorxEntities.xml).
+ * The export is read in a single streaming pass. Only the Thing name, template and the names of its
+ * remote property, service and event bindings are kept; everything else in the file (mashups, avatars,
+ * persisted values, ...) is skipped without being materialized.
+ */
+public class EntityIndex {
+	private static final Logger LOG = LoggerFactory.getLogger(EntityIndex.class);
+
+	private final static String THINGS_ELEMENT = "Things";
+	private final static String THING_ELEMENT = "Thing";
+	private final static String PROPERTY_BINDING_ELEMENT = "RemotePropertyBinding";
+	private final static String SERVICE_BINDING_ELEMENT = "RemoteServiceBinding";
+	private final static String EVENT_BINDING_ELEMENT = "RemoteEventBinding";
+
+	private final Map<String, ThingEntry> things;
+
+	private EntityIndex(Map<String, ThingEntry> things) {
+		this.things = Collections.unmodifiableMap(things);
+	}
+
+	/**
+	 * Builds an index from an entity export on disk.
+	 *
+	 * @param path The path of the entity export file.
+	 * @return The index of all Things found in the file.
+	 * @throws Exception If the file cannot be read or is not well formed.
+	 */
+	public static EntityIndex load(String path) throws Exception {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+			return load(in);
+		}
+	}
+
+	/**
+	 * Builds an index from an entity export stream. The stream is not closed.
+	 *
+	 * @param in The stream containing the entity export.
+	 * @return The index of all Things found in the stream.
+	 * @throws Exception If the stream is not well formed.
+	 */
+	public static EntityIndex load(InputStream in) throws Exception {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// The export never references external entities, never resolve them
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		Map<String, ThingEntry> things = new LinkedHashMap<String, ThingEntry>();
+		XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+		try {
+			// Depth of the <Things> element, or -1 when we are outside of it
+			int thingsDepth = -1;
+			int depth = 0;
+
+			String name = null;
+			String description = null;
+			String template = null;
+			String identifier = null;
+			boolean enabled = true;
+			List<String> propertyBindings = new ArrayList<String>();
+			List<String> serviceBindings = new ArrayList<String>();
+			List<String> eventBindings = new ArrayList<String>();
+
+			while (reader.hasNext()) {
+				int token = reader.next();
+
+				if (token == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					String element = reader.getLocalName();
+
+					if (THINGS_ELEMENT.equals(element) && thingsDepth < 0) {
+						thingsDepth = depth;
+					} else if (THING_ELEMENT.equals(element) && depth == thingsDepth + 1) {
+						name = reader.getAttributeValue(null, "name");
+						description = reader.getAttributeValue(null, "description");
+						template = reader.getAttributeValue(null, "thingTemplate");
+						identifier = reader.getAttributeValue(null, "identifier");
+						enabled = !"false".equals(reader.getAttributeValue(null, "enabled"));
+						propertyBindings.clear();
+						serviceBindings.clear();
+						eventBindings.clear();
+					} else if (name != null) {
+						if (PROPERTY_BINDING_ELEMENT.equals(element)) {
+							propertyBindings.add(reader.getAttributeValue(null, "name"));
+						} else if (SERVICE_BINDING_ELEMENT.equals(element)) {
+							serviceBindings.add(reader.getAttributeValue(null, "name"));
+						} else if (EVENT_BINDING_ELEMENT.equals(element)) {
+							eventBindings.add(reader.getAttributeValue(null, "name"));
+						}
+					}
+				} else if (token == XMLStreamConstants.END_ELEMENT) {
+					if (THING_ELEMENT.equals(reader.getLocalName()) && depth == thingsDepth + 1 && name != null) {
+						things.put(name, new ThingEntry(name, description, template, identifier, enabled,
+								propertyBindings.toArray(new String[propertyBindings.size()]),
+								serviceBindings.toArray(new String[serviceBindings.size()]),
+								eventBindings.toArray(new String[eventBindings.size()])));
+						name = null;
+					} else if (depth == thingsDepth) {
+						thingsDepth = -1;
+					}
+					depth--;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		LOG.info("Indexed {} things from the entity export", things.size());
+		return new EntityIndex(things);
+	}
+
+	/**
+	 * @param name The name of the Thing.
+	 * @return The entry for the Thing, or null if the export does not contain it.
+	 */
+	public ThingEntry getThing(String name) {
+		return things.get(name);
+	}
+
+	/**
+	 * @return All of the Things in the export, in document order.
+	 */
+	public Collection<ThingEntry> getThings() {
+		return things.values();
+	}
+
+	/**
+	 * Finds the enabled Things that declare a remote binding for the given event. This is used
+	 * to find the Things that a particular VirtualThing implementation should be hosting.
+	 *
+	 * @param event The name of the bound event.
+	 * @return The enabled Things that bind the event, in document order.
+	 */
+	public List<ThingEntry> getThingsBindingEvent(String event) {
+		List<ThingEntry> result = new ArrayList<ThingEntry>();
+		for (ThingEntry entry : things.values()) {
+			if (entry.isEnabled() && entry.hasEventBinding(event)) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	public int size() {
+		return things.size();
+	}
+
+	/**
+	 * Warns about every remote property, service and event binding the export declares for a Thing that
+	 * its VirtualThing does not define. The export is the source of truth for the bindings, so this catches
+	 * the Java side drifting from it when the Thing is created, rather than when the platform first uses
+	 * the binding.
+	 *
+	 * @param entry The Thing as declared in the export.
+	 * @param thing The VirtualThing created for it.
+	 */
+	public static void checkBindings(ThingEntry entry, VirtualThing thing) {
+		for (String property : entry.getPropertyBindings()) {
+			if (thing.getProperty(property) == null) {
+				LOG.warn("{} binds property {} in the entity export but {} does not define it",
+						entry.getName(), property, thing.getClass().getSimpleName());
+			}
+		}
+		for (String service : entry.getServiceBindings()) {
+			if (!thing.getThingShape().getServiceDefinitions().containsKey(service)) {
+				LOG.warn("{} binds service {} in the entity export but {} does not define it",
+						entry.getName(), service, thing.getClass().getSimpleName());
+			}
+		}
+		for (String event : entry.getEventBindings()) {
+			if (!thing.getThingShape().getEventDefinitions().containsKey(event)) {
+				LOG.warn("{} binds event {} in the entity export but {} does not define it",
+						entry.getName(), event, thing.getClass().getSimpleName());
+			}
+		}
+	}
+}
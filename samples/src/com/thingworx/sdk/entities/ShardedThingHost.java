@@ -0,0 +1,470 @@
+package com.thingworx.sdk.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thingworx.communications.client.ConnectedThingClient;
+import com.thingworx.communications.client.things.VirtualThing;
+import com.thingworx.sdk.common.ConsistentHashRing;
+
+/**
+ * Hosts the Things of an {@link EntityIndex} across a pool of client connections. Each Thing is
+ * assigned to a connection by consistent hashing of its name, so every connection carries its share
+ * of the traffic on its own WebSocket and I/O thread, and the connections are scanned in parallel.
+ *
+ * Only connected clients take part in the assignment. When a connection drops, the Things it owned
+ * are re-created and bound on the remaining connections; once it has been back for the rejoin delay
+ * they move back to it, so a flapping connection does not move its Things back and forth. Things on the
+ * other connections are never moved. A {@link ThingHandover} carries the state of a moved Thing over to
+ * its new VirtualThing and releases the previous one.
+ *
+ * Until it is activated a Thing costs no more than its {@link ThingEntry}. A VirtualThing is created and
+ * bound when its Thing is first scanned or looked up, or up front when the population is bound in bulk
+ * with {@link #bindAll(BulkBinder, long, BindListener)}.
+ */
+public class ShardedThingHost {
+	private static final Logger LOG = LoggerFactory.getLogger(ShardedThingHost.class);
+
+	private final static int VIRTUAL_NODES = 64;
+	private final static long DEFAULT_REJOIN_DELAY_MILLIS = 30000L;
+
+	private final List<ConnectedThingClient> clients;
+	private final ThingFactory factory;
+	private final ThingHandover handover;
+	private final long rejoinDelayMillis;
+	// Keyed by name, in the order of the entity export
+	private final Map<String, ThingEntry> entries = new LinkedHashMap<String, ThingEntry>();
+	private final ExecutorService scanners;
+
+	private final ConcurrentHashMap<String, VirtualThing> things = new ConcurrentHashMap<String, VirtualThing>();
+	// The index of the client each created Thing is bound to
+	private final ConcurrentHashMap<String, Integer> owners = new ConcurrentHashMap<String, Integer>();
+	// Things a bulk bind is creating, they are not scanned or created lazily until it has bound them
+	private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// Rebuilt by rebalance() whenever the set of connected clients changes
+	private volatile ConsistentHashRing<Integer> ring = new ConsistentHashRing<Integer>(VIRTUAL_NODES);
+	private boolean[] connected;
+	// When each client was seen connected since, 0 while it is disconnected
+	private final long[] connectedSince;
+	// Whether each client has been part of the ring before; a client joins right away the first time
+	private final boolean[] joined;
+
+	/**
+	 * @param clients The client connections to spread the Things over, at least one.
+	 * @param factory Creates the VirtualThing for an entry on a given client.
+	 * @param entries The Things to host, typically selected from an {@link EntityIndex}.
+	 */
+	public ShardedThingHost(List<? extends ConnectedThingClient> clients, ThingFactory factory, Collection<ThingEntry> entries) {
+		this(clients, factory, entries, null, DEFAULT_REJOIN_DELAY_MILLIS);
+	}
+
+	/**
+	 * @param clients The client connections to spread the Things over, at least one.
+	 * @param factory Creates the VirtualThing for an entry on a given client.
+	 * @param entries The Things to host, typically selected from an {@link EntityIndex}.
+	 * @param handover Carries the state of moved Things over and releases their previous VirtualThing, or null.
+	 * @param rejoinDelayMillis How long a client that came back must stay connected before Things move back to it.
+	 */
+	public ShardedThingHost(List<? extends ConnectedThingClient> clients, ThingFactory factory, Collection<ThingEntry> entries,
+			ThingHandover handover, long rejoinDelayMillis) {
+		if (clients.isEmpty()) {
+			throw new IllegalArgumentException("At least one client is required");
+		}
+
+		this.clients = new ArrayList<ConnectedThingClient>(clients);
+		this.factory = factory;
+		this.handover = handover;
+		this.rejoinDelayMillis = rejoinDelayMillis;
+		this.connectedSince = new long[clients.size()];
+		this.joined = new boolean[clients.size()];
+		for (ThingEntry entry : entries) {
+			this.entries.put(entry.getName(), entry);
+		}
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.scanners = Executors.newFixedThreadPool(clients.size(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ShardedThingHost-scan-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts every client connection.
+	 *
+	 * @throws Exception If a client could not be started.
+	 */
+	public void start() throws Exception {
+		for (ConnectedThingClient client : clients) {
+			client.start();
+		}
+	}
+
+	/**
+	 * Shuts every client connection down, stops the scan threads and releases every VirtualThing.
+	 */
+	public void shutdown() {
+		scanners.shutdown();
+		for (ConnectedThingClient client : clients) {
+			try {
+				client.shutdown();
+			} catch (Exception e) {
+				LOG.error("Failed to shut a client down.", e);
+			}
+		}
+		if (handover != null) {
+			for (VirtualThing thing : things.values()) {
+				handover.release(thing);
+			}
+		}
+	}
+
+	/**
+	 * @return true once every client connection has been shut down.
+	 */
+	public boolean isShutdown() {
+		for (ConnectedThingClient client : clients) {
+			if (!client.isShutdown()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Scans every hosted Thing, activating the ones scanned for the first time. The Things of each
+	 * connected client are scanned on their own thread, and this method returns once all of them have been
+	 * scanned. A Thing whose client dropped is moved to its new owner first, and the Things a bulk bind is
+	 * still creating are skipped.
+	 *
+	 * @return The number of Things scanned, 0 while no client is connected.
+	 * @throws InterruptedException If interrupted while waiting for the scans to complete.
+	 */
+	public int scanAll() throws InterruptedException {
+		ConsistentHashRing<Integer> current = rebalance();
+		if (current.isEmpty()) {
+			return 0;
+		}
+
+		List<List<ThingEntry>> assignments = new ArrayList<List<ThingEntry>>();
+		for (int shard = 0; shard < clients.size(); shard++) {
+			assignments.add(new ArrayList<ThingEntry>());
+		}
+		for (ThingEntry entry : entries.values()) {
+			assignments.get(current.get(entry.getName())).add(entry);
+		}
+
+		List<Callable<Integer>> scans = new ArrayList<Callable<Integer>>();
+		for (int shard = 0; shard < assignments.size(); shard++) {
+			final int owner = shard;
+			final List<ThingEntry> assigned = assignments.get(shard);
+			if (assigned.isEmpty()) {
+				continue;
+			}
+
+			scans.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int scanned = 0;
+					for (ThingEntry entry : assigned) {
+						try {
+							VirtualThing thing = materialize(entry, owner);
+							if (thing != null) {
+								thing.processScanRequest();
+								scanned++;
+							}
+						} catch (Exception eProcessing) {
+							LOG.error("Error Processing Scan Request for [{}]", entry.getName(), eProcessing);
+						}
+					}
+					return scanned;
+				}
+			});
+		}
+
+		int scanned = 0;
+		for (Future<Integer> shardScanned : scanners.invokeAll(scans)) {
+			try {
+				scanned += shardScanned.get();
+			} catch (ExecutionException e) {
+				LOG.error("A scan failed", e.getCause());
+			}
+		}
+		return scanned;
+	}
+
+	/**
+	 * Returns the VirtualThing for a hosted Thing, activating it, that is creating and binding it on its
+	 * client, if needed.
+	 *
+	 * @param name The name of the Thing.
+	 * @return The bound VirtualThing, or null if the Thing is not hosted here, no client is connected or a
+	 * bulk bind has not bound it yet.
+	 * @throws Exception If the VirtualThing could not be created or bound.
+	 */
+	public VirtualThing getThing(String name) throws Exception {
+		Integer owner = ring.get(name);
+		if (owner == null) {
+			return things.get(name);
+		}
+
+		ThingEntry entry = entries.get(name);
+		return entry != null ? materialize(entry, owner) : null;
+	}
+
+	/**
+	 * Creates and binds every hosted Thing that was not created yet, in parallel and in batches, on the
+	 * clients that are connected. Scans carry on meanwhile: a Thing is scanned as soon as its batch is
+	 * bound, and the Things still waiting for their batch are skipped. The clients are bound to in
+	 * parallel, and a Thing whose creation or binding fails is left to be created when it is next scanned or looked up.
+	 *
+	 * @param binder Creates and binds the Things of each client.
+	 * @param connectTimeoutMillis How long to wait for each client to connect first.
+	 * @param listener Hears of every batch bound, with the counts for all of the clients, from the binding
+	 * thread of each client; may be null.
+	 * @return The number of Things bound.
+	 * @throws Exception If interrupted, or if binding failed on a client.
+	 */
+	public int bindAll(final BulkBinder binder, long connectTimeoutMillis, final BindListener listener) throws Exception {
+		for (ConnectedThingClient client : clients) {
+			client.waitForConnection(connectTimeoutMillis);
+		}
+		ConsistentHashRing<Integer> current = rebalance();
+		if (current.isEmpty()) {
+			return 0;
+		}
+
+		final ThingFactory checked = new ThingFactory() {
+			@Override
+			public VirtualThing create(ThingEntry entry, ConnectedThingClient client) throws Exception {
+				VirtualThing thing = factory.create(entry, client);
+				EntityIndex.checkBindings(entry, thing);
+				return thing;
+			}
+		};
+
+		// Claim the Things no lookup has created yet
+		Map<Integer, List<ThingEntry>> unboundByOwner = new LinkedHashMap<Integer, List<ThingEntry>>();
+		int claimed = 0;
+		for (ThingEntry entry : entries.values()) {
+			// Under the entry's lock, so a Thing being created lazily right now is not created twice
+			synchronized (entry) {
+				if (things.containsKey(entry.getName()) || !pending.add(entry.getName())) {
+					continue;
+				}
+			}
+			Integer owner = current.get(entry.getName());
+			List<ThingEntry> unbound = unboundByOwner.get(owner);
+			if (unbound == null) {
+				unbound = new ArrayList<ThingEntry>();
+				unboundByOwner.put(owner, unbound);
+			}
+			unbound.add(entry);
+			claimed++;
+		}
+
+		final int total = claimed;
+		final AtomicInteger bound = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		List<Callable<Integer>> binds = new ArrayList<Callable<Integer>>();
+		for (Map.Entry<Integer, List<ThingEntry>> shard : unboundByOwner.entrySet()) {
+			final int owner = shard.getKey();
+			final List<ThingEntry> unbound = shard.getValue();
+			binds.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					try {
+						return binder.bind(clients.get(owner), checked, unbound, new BindListener() {
+							private int lastFailed;
+
+							@Override
+							public void batchBound(List<VirtualThing> batch, int shardBound, int shardFailed, int shardTotal) {
+								for (VirtualThing thing : batch) {
+									// Published like a Thing materialize creates, so a scan never sees it without its owner
+									synchronized (entries.get(thing.getName())) {
+										owners.put(thing.getName(), owner);
+										things.put(thing.getName(), thing);
+										pending.remove(thing.getName());
+									}
+								}
+								int failedNow = failed.addAndGet(shardFailed - lastFailed);
+								lastFailed = shardFailed;
+								int boundNow = bound.addAndGet(batch.size());
+								if (listener != null) {
+									listener.batchBound(batch, boundNow, failedNow, total);
+								}
+							}
+						});
+					} finally {
+						// Things the bulk bind could not bind are created lazily instead
+						for (ThingEntry entry : unbound) {
+							pending.remove(entry.getName());
+						}
+					}
+				}
+			});
+		}
+
+		ExecutorService binders = Executors.newFixedThreadPool(Math.max(1, binds.size()));
+		try {
+			int result = 0;
+			for (Future<Integer> shardBound : binders.invokeAll(binds)) {
+				result += shardBound.get();
+			}
+			return result;
+		} finally {
+			binders.shutdown();
+		}
+	}
+
+	/**
+	 * @return The Things bound on all of the client connections, keyed by name.
+	 */
+	public Map<String, VirtualThing> getThings() {
+		Map<String, VirtualThing> result = new LinkedHashMap<String, VirtualThing>();
+		for (ConnectedThingClient client : clients) {
+			result.putAll(client.getThings());
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of Things currently bound on each client connection, in client order.
+	 */
+	public int[] getThingCounts() {
+		int[] counts = new int[clients.size()];
+		for (Integer owner : owners.values()) {
+			counts[owner]++;
+		}
+		return counts;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	// Rebuilds the ring when a client joins or leaves it, and returns the ring to use
+	private synchronized ConsistentHashRing<Integer> rebalance() {
+		long now = System.currentTimeMillis();
+		boolean[] current = new boolean[clients.size()];
+		for (int shard = 0; shard < current.length; shard++) {
+			if (clients.get(shard).isConnected()) {
+				if (connectedSince[shard] == 0) {
+					connectedSince[shard] = now;
+				}
+				// A client already in the ring stays; one that left rejoins once it has stayed connected for the delay
+				current[shard] = (connected != null && connected[shard]) || !joined[shard]
+						|| now - connectedSince[shard] >= rejoinDelayMillis;
+			} else {
+				connectedSince[shard] = 0;
+			}
+		}
+		if (Arrays.equals(current, connected)) {
+			return ring;
+		}
+
+		ConsistentHashRing<Integer> updated = new ConsistentHashRing<Integer>(VIRTUAL_NODES);
+		for (int shard = 0; shard < current.length; shard++) {
+			if (current[shard]) {
+				updated.add("connection-" + shard, shard);
+				joined[shard] = true;
+			}
+		}
+
+		LOG.info("Rebalanced {} things over {} connected clients", entries.size(), countConnected(current));
+		this.connected = current;
+		this.ring = updated;
+		return updated;
+	}
+
+	private VirtualThing materialize(ThingEntry entry, int owner) throws Exception {
+		String name = entry.getName();
+		// The owner is published before the Thing and read before it, so a Thing is never returned for a
+		// client it has already moved away from
+		Integer current = owners.get(name);
+		VirtualThing thing = things.get(name);
+		if (thing != null && current != null && current == owner) {
+			return thing;
+		}
+
+		synchronized (entry) {
+			current = owners.get(name);
+			thing = things.get(name);
+			if (thing != null && current != null && current == owner) {
+				return thing;
+			}
+			if (thing == null && pending.contains(name)) {
+				// A bulk bind is creating it
+				return null;
+			}
+
+			VirtualThing previous = thing;
+			if (previous != null) {
+				// The Thing's client dropped or came back, move the Thing to its new owner
+				try {
+					clients.get(current).unbindThing(previous);
+				} catch (Exception e) {
+					LOG.warn("Could not unbind {} from client {}, the platform may still route requests to it there", name, current, e);
+				}
+				LOG.info("Moving {} from client {} to client {}", name, current, owner);
+				things.remove(name);
+			}
+
+			ConnectedThingClient client = clients.get(owner);
+			thing = factory.create(entry, client);
+			EntityIndex.checkBindings(entry, thing);
+			try {
+				if (previous != null && handover != null) {
+					handover.handOver(previous, thing);
+				}
+				client.bindThing(thing);
+			} catch (Exception e) {
+				if (handover != null) {
+					handover.release(thing);
+				}
+				if (previous != null) {
+					// Keep scanning the Thing so the move is retried
+					things.put(name, previous);
+				}
+				throw e;
+			}
+			owners.put(name, owner);
+			things.put(name, thing);
+			if (previous != null && handover != null) {
+				handover.release(previous);
+			}
+		}
+		return thing;
+	}
+
+	private static int countConnected(boolean[] connected) {
+		int count = 0;
+		for (boolean value : connected) {
+			if (value) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
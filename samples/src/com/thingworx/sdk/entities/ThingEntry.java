@@ -0,0 +1,96 @@
+package com.thingworx.sdk.entities;
+
+/**
+ * A lightweight, immutable description of a single Thing read from a ThingWorx entity export.
+ * Only the information needed to decide which VirtualThing to create and what it is bound to
+ * is kept, so thousands of entries can be held in memory without creating any VirtualThing.
+ */
+public class ThingEntry {
+	private final String name;
+	private final String description;
+	private final String thingTemplate;
+	private final String identifier;
+	private final boolean enabled;
+	private final String[] propertyBindings;
+	private final String[] serviceBindings;
+	private final String[] eventBindings;
+
+	public ThingEntry(String name, String description, String thingTemplate, String identifier, boolean enabled,
+			String[] propertyBindings, String[] serviceBindings, String[] eventBindings) {
+		this.name = name;
+		this.description = description;
+		this.thingTemplate = thingTemplate;
+		this.identifier = identifier;
+		this.enabled = enabled;
+		this.propertyBindings = propertyBindings;
+		this.serviceBindings = serviceBindings;
+		this.eventBindings = eventBindings;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getThingTemplate() {
+		return thingTemplate;
+	}
+
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return The names of the remote property bindings declared for this Thing.
+	 */
+	public String[] getPropertyBindings() {
+		return propertyBindings.clone();
+	}
+
+	/**
+	 * @return The names of the remote service bindings declared for this Thing.
+	 */
+	public String[] getServiceBindings() {
+		return serviceBindings.clone();
+	}
+
+	/**
+	 * @return The names of the remote event bindings declared for this Thing.
+	 */
+	public String[] getEventBindings() {
+		return eventBindings.clone();
+	}
+
+	public boolean hasPropertyBinding(String property) {
+		return contains(propertyBindings, property);
+	}
+
+	public boolean hasServiceBinding(String service) {
+		return contains(serviceBindings, service);
+	}
+
+	public boolean hasEventBinding(String event) {
+		return contains(eventBindings, event);
+	}
+
+	private static boolean contains(String[] values, String value) {
+		for (String candidate : values) {
+			if (candidate.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return name + " [" + thingTemplate + "]";
+	}
+}
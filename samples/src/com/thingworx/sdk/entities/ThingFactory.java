@@ -0,0 +1,17 @@
+package com.thingworx.sdk.entities;
+
+import com.thingworx.communications.client.ConnectedThingClient;
+import com.thingworx.communications.client.things.VirtualThing;
+
+/**
+ * Creates the VirtualThing that hosts a Thing described in an entity export.
+ */
+public interface ThingFactory {
+	/**
+	 * @param entry The Thing, as read from the entity export.
+	 * @param client The client that the new VirtualThing will be bound to.
+	 * @return A fully initialized, not yet bound, VirtualThing.
+	 * @throws Exception If the VirtualThing could not be created.
+	 */
+	VirtualThing create(ThingEntry entry, ConnectedThingClient client) throws Exception;
+}
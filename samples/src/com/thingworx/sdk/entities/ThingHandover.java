@@ -0,0 +1,26 @@
+package com.thingworx.sdk.entities;
+
+import com.thingworx.communications.client.things.VirtualThing;
+
+/**
+ * Carries the state of a Thing over when a {@link ShardedThingHost} re-creates it on another client,
+ * and releases what a VirtualThing holds once the host no longer uses it.
+ */
+public interface ThingHandover {
+	/**
+	 * Called before the new VirtualThing is bound, while the previous one is already unbound.
+	 *
+	 * @param previous The VirtualThing on the client the Thing moves away from.
+	 * @param next The VirtualThing created for the Thing on its new client.
+	 * @throws Exception If the state could not be carried over, the move is retried on the next scan.
+	 */
+	void handOver(VirtualThing previous, VirtualThing next) throws Exception;
+
+	/**
+	 * Releases the executors, queues and listeners of a VirtualThing that was moved or dropped. The
+	 * VirtualThing is not used again.
+	 *
+	 * @param thing The VirtualThing to release.
+	 */
+	void release(VirtualThing thing);
+}
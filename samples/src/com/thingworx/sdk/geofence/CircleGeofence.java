@@ -0,0 +1,57 @@
+package com.thingworx.sdk.geofence;
+
+/**
+ * A circular zone around a center point. Distances use an equirectangular approximation, which is
+ * accurate to well under one percent for the radii of delivery zones.
+ */
+public class CircleGeofence extends Geofence {
+	private final double latitude;
+	private final double longitude;
+	private final double radiusSquared;
+	private final double metersPerDegreeLongitude;
+	private final double latitudeSpan;
+	private final double longitudeSpan;
+
+	/**
+	 * @param name The name of the zone.
+	 * @param latitude The latitude of the center.
+	 * @param longitude The longitude of the center.
+	 * @param radiusMeters The radius of the zone, in meters.
+	 */
+	public CircleGeofence(String name, double latitude, double longitude, double radiusMeters) {
+		super(name);
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.radiusSquared = radiusMeters * radiusMeters;
+		this.metersPerDegreeLongitude = METERS_PER_DEGREE_LONGITUDE * Math.cos(Math.toRadians(latitude));
+		this.latitudeSpan = radiusMeters / METERS_PER_DEGREE_LATITUDE;
+		this.longitudeSpan = radiusMeters / Math.max(metersPerDegreeLongitude, 1d);
+	}
+
+	@Override
+	public boolean contains(double latitude, double longitude) {
+		double dx = (longitude - this.longitude) * metersPerDegreeLongitude;
+		double dy = (latitude - this.latitude) * METERS_PER_DEGREE_LATITUDE;
+		return dx * dx + dy * dy <= radiusSquared;
+	}
+
+	@Override
+	public double getMinLatitude() {
+		return latitude - latitudeSpan;
+	}
+
+	@Override
+	public double getMaxLatitude() {
+		return latitude + latitudeSpan;
+	}
+
+	@Override
+	public double getMinLongitude() {
+		return longitude - longitudeSpan;
+	}
+
+	@Override
+	public double getMaxLongitude() {
+		return longitude + longitudeSpan;
+	}
+}
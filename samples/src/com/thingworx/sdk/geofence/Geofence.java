@@ -0,0 +1,40 @@
+package com.thingworx.sdk.geofence;
+
+/**
+ * A named zone that a location can be inside of. Coordinates are in decimal degrees.
+ */
+public abstract class Geofence {
+	// Approximate length of one degree of latitude and of longitude at the equator, in meters
+	final static double METERS_PER_DEGREE_LATITUDE = 110540d;
+	final static double METERS_PER_DEGREE_LONGITUDE = 111320d;
+
+	private final String name;
+
+	protected Geofence(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param latitude The latitude of the location.
+	 * @param longitude The longitude of the location.
+	 * @return true if the location is inside the zone.
+	 */
+	public abstract boolean contains(double latitude, double longitude);
+
+	public abstract double getMinLatitude();
+
+	public abstract double getMaxLatitude();
+
+	public abstract double getMinLongitude();
+
+	public abstract double getMaxLongitude();
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
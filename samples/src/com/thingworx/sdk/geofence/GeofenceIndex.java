@@ -0,0 +1,149 @@
+package com.thingworx.sdk.geofence;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A spatial index over a set of zones, for testing thousands of zones against each location update.
+ *
+ * The index is a uniform grid of cells a fixed number of degrees wide. Every zone is registered in
+ * each cell its bounding box overlaps, so a lookup only tests the few zones of a single cell. The index
+ * is immutable once built and can be shared by any number of threads.
+ */
+public class GeofenceIndex {
+	private static final Logger LOG = LoggerFactory.getLogger(GeofenceIndex.class);
+
+	private final static Geofence[] NO_FENCES = new Geofence[0];
+
+	private final double cellSize;
+	private final Map<Long, Geofence[]> cells;
+	private final int size;
+
+	/**
+	 * @param fences The zones to index.
+	 * @param cellSize The width and height of a grid cell, in degrees. Pick it close to the size of a typical zone.
+	 */
+	public GeofenceIndex(Collection<? extends Geofence> fences, double cellSize) {
+		this.cellSize = cellSize;
+		this.size = fences.size();
+
+		Map<Long, List<Geofence>> building = new HashMap<Long, List<Geofence>>();
+		for (Geofence fence : fences) {
+			int minRow = row(fence.getMinLatitude());
+			int maxRow = row(fence.getMaxLatitude());
+			int minColumn = column(fence.getMinLongitude());
+			int maxColumn = column(fence.getMaxLongitude());
+
+			for (int r = minRow; r <= maxRow; r++) {
+				for (int c = minColumn; c <= maxColumn; c++) {
+					Long key = key(r, c);
+					List<Geofence> cell = building.get(key);
+					if (cell == null) {
+						cell = new ArrayList<Geofence>(2);
+						building.put(key, cell);
+					}
+					cell.add(fence);
+				}
+			}
+		}
+
+		this.cells = new HashMap<Long, Geofence[]>(building.size() * 2);
+		for (Map.Entry<Long, List<Geofence>> cell : building.entrySet()) {
+			cells.put(cell.getKey(), cell.getValue().toArray(new Geofence[cell.getValue().size()]));
+		}
+	}
+
+	/**
+	 * Loads zones from a text file with one zone per line. Blank lines and lines starting with # are ignored.
+	 * <pre>
+	 * circle,&lt;name&gt;,&lt;latitude&gt;,&lt;longitude&gt;,&lt;radius in meters&gt;
+	 * polygon,&lt;name&gt;,&lt;latitude&gt; &lt;longitude&gt;,&lt;latitude&gt; &lt;longitude&gt;,...
+	 * </pre>
+	 *
+	 * @param path The path of the file.
+	 * @param cellSize The width and height of a grid cell, in degrees.
+	 * @return The index of the zones in the file.
+	 * @throws Exception If the file cannot be read or a line is malformed.
+	 */
+	public static GeofenceIndex load(String path, double cellSize) throws Exception {
+		List<Geofence> fences = new ArrayList<Geofence>();
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = line.split(",");
+				if ("circle".equals(fields[0]) && fields.length == 5) {
+					fences.add(new CircleGeofence(fields[1], Double.parseDouble(fields[2]), Double.parseDouble(fields[3]), Double.parseDouble(fields[4])));
+				} else if ("polygon".equals(fields[0]) && fields.length >= 5) {
+					double[] latitudes = new double[fields.length - 2];
+					double[] longitudes = new double[fields.length - 2];
+					for (int index = 2; index < fields.length; index++) {
+						String[] point = fields[index].trim().split("\\s+");
+						latitudes[index - 2] = Double.parseDouble(point[0]);
+						longitudes[index - 2] = Double.parseDouble(point[1]);
+					}
+					fences.add(new PolygonGeofence(fields[1], latitudes, longitudes));
+				} else {
+					throw new IllegalArgumentException("Malformed geofence on line " + lineNumber + " of " + path);
+				}
+			}
+		}
+
+		LOG.info("Loaded {} geofences from {}", fences.size(), path);
+		return new GeofenceIndex(fences, cellSize);
+	}
+
+	/**
+	 * Finds the zones containing a location.
+	 *
+	 * @param latitude The latitude of the location.
+	 * @param longitude The longitude of the location.
+	 * @param result Cleared, then filled with the zones containing the location. Reuse it to avoid allocating.
+	 */
+	public void query(double latitude, double longitude, List<Geofence> result) {
+		result.clear();
+		Geofence[] candidates = cells.get(key(row(latitude), column(longitude)));
+		if (candidates == null) {
+			candidates = NO_FENCES;
+		}
+		for (Geofence fence : candidates) {
+			if (fence.contains(latitude, longitude)) {
+				result.add(fence);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of zones in the index.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int row(double latitude) {
+		return (int) Math.floor(latitude / cellSize);
+	}
+
+	private int column(double longitude) {
+		return (int) Math.floor(longitude / cellSize);
+	}
+
+	private static Long key(int row, int column) {
+		return ((long) row << 32) | (column & 0xffffffffL);
+	}
+}
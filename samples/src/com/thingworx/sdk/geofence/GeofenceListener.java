@@ -0,0 +1,15 @@
+package com.thingworx.sdk.geofence;
+
+/**
+ * Receives the zone transitions detected by a {@link GeofenceTracker}.
+ */
+public interface GeofenceListener {
+	/**
+	 * @param fence The zone.
+	 * @param transition What happened.
+	 * @param latitude The latitude of the location that caused the transition.
+	 * @param longitude The longitude of the location that caused the transition.
+	 * @param time The time of the location update, in milliseconds since the epoch.
+	 */
+	void onTransition(Geofence fence, GeofenceTransition transition, double latitude, double longitude, long time);
+}
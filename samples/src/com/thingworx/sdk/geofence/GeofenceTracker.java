@@ -0,0 +1,78 @@
+package com.thingworx.sdk.geofence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks which zones of a {@link GeofenceIndex} a single thing is in, and turns its location updates
+ * into enter, exit and dwell transitions. Each thing owns its own tracker; a tracker is not thread safe
+ * and must only be updated by one thread at a time.
+ */
+public class GeofenceTracker {
+	private final GeofenceIndex index;
+	private final long dwellMillis;
+
+	// The zones the thing is in, when it entered each one and whether DWELL was raised for it
+	private final List<Geofence> inside = new ArrayList<Geofence>();
+	private final List<Long> enteredAt = new ArrayList<Long>();
+	private final List<Boolean> dwelled = new ArrayList<Boolean>();
+
+	private final List<Geofence> current = new ArrayList<Geofence>();
+
+	/**
+	 * @param index The zones to track.
+	 * @param dwellMillis How long the thing must stay in a zone before DWELL is raised, 0 to never raise DWELL.
+	 */
+	public GeofenceTracker(GeofenceIndex index, long dwellMillis) {
+		this.index = index;
+		this.dwellMillis = dwellMillis;
+	}
+
+	/**
+	 * Tests a new location of the thing and reports the transitions it causes.
+	 *
+	 * @param latitude The latitude of the new location.
+	 * @param longitude The longitude of the new location.
+	 * @param time The time of the update, in milliseconds since the epoch.
+	 * @param listener Receives the transitions, if any.
+	 * @return The number of transitions reported.
+	 */
+	public int update(double latitude, double longitude, long time, GeofenceListener listener) {
+		index.query(latitude, longitude, current);
+		int transitions = 0;
+
+		for (int i = inside.size() - 1; i >= 0; i--) {
+			Geofence fence = inside.get(i);
+			if (!current.contains(fence)) {
+				inside.remove(i);
+				enteredAt.remove(i);
+				dwelled.remove(i);
+				listener.onTransition(fence, GeofenceTransition.EXIT, latitude, longitude, time);
+				transitions++;
+			} else if (dwellMillis > 0 && !dwelled.get(i) && time - enteredAt.get(i) >= dwellMillis) {
+				dwelled.set(i, Boolean.TRUE);
+				listener.onTransition(fence, GeofenceTransition.DWELL, latitude, longitude, time);
+				transitions++;
+			}
+		}
+
+		for (Geofence fence : current) {
+			if (!inside.contains(fence)) {
+				inside.add(fence);
+				enteredAt.add(time);
+				dwelled.add(Boolean.FALSE);
+				listener.onTransition(fence, GeofenceTransition.ENTER, latitude, longitude, time);
+				transitions++;
+			}
+		}
+
+		return transitions;
+	}
+
+	/**
+	 * @return The number of zones the thing is in.
+	 */
+	public int getZoneCount() {
+		return inside.size();
+	}
+}
@@ -0,0 +1,13 @@
+package com.thingworx.sdk.geofence;
+
+/**
+ * The zone transitions raised by a {@link GeofenceTracker}.
+ */
+public enum GeofenceTransition {
+	/** The thing entered the zone. */
+	ENTER,
+	/** The thing left the zone. */
+	EXIT,
+	/** The thing has stayed in the zone for the tracker's dwell time, raised once per visit. */
+	DWELL
+}
@@ -0,0 +1,79 @@
+package com.thingworx.sdk.geofence;
+
+/**
+ * A zone bounded by a simple polygon. The polygon is closed implicitly, the last vertex connects back
+ * to the first one.
+ */
+public class PolygonGeofence extends Geofence {
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double minLatitude;
+	private final double maxLatitude;
+	private final double minLongitude;
+	private final double maxLongitude;
+
+	/**
+	 * @param name The name of the zone.
+	 * @param latitudes The latitudes of the vertices.
+	 * @param longitudes The longitudes of the vertices, in the same order.
+	 */
+	public PolygonGeofence(String name, double[] latitudes, double[] longitudes) {
+		super(name);
+		if (latitudes.length != longitudes.length || latitudes.length < 3) {
+			throw new IllegalArgumentException("A polygon needs at least 3 vertices with a latitude and a longitude each");
+		}
+
+		this.latitudes = latitudes.clone();
+		this.longitudes = longitudes.clone();
+
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int index = 0; index < latitudes.length; index++) {
+			minLat = Math.min(minLat, latitudes[index]);
+			maxLat = Math.max(maxLat, latitudes[index]);
+			minLon = Math.min(minLon, longitudes[index]);
+			maxLon = Math.max(maxLon, longitudes[index]);
+		}
+		this.minLatitude = minLat;
+		this.maxLatitude = maxLat;
+		this.minLongitude = minLon;
+		this.maxLongitude = maxLon;
+	}
+
+	// Even-odd ray casting
+	@Override
+	public boolean contains(double latitude, double longitude) {
+		if (latitude < minLatitude || latitude > maxLatitude || longitude < minLongitude || longitude > maxLongitude) {
+			return false;
+		}
+
+		boolean inside = false;
+		for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+			if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+					&& longitude < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i]) / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	@Override
+	public double getMinLatitude() {
+		return minLatitude;
+	}
+
+	@Override
+	public double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	@Override
+	public double getMinLongitude() {
+		return minLongitude;
+	}
+
+	@Override
+	public double getMaxLongitude() {
+		return maxLongitude;
+	}
+}
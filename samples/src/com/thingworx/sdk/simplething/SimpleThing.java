@@ -1,5 +1,7 @@
 package com.thingworx.sdk.simplething;
 
+import java.util.concurrent.Callable;
+
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +18,14 @@ import com.thingworx.metadata.annotations.ThingworxServiceDefinition;
 import com.thingworx.metadata.annotations.ThingworxServiceParameter;
 import com.thingworx.metadata.annotations.ThingworxServiceResult;
 import com.thingworx.metadata.collections.FieldDefinitionCollection;
+import com.thingworx.sdk.common.InfoTableDeltaTracker;
+import com.thingworx.sdk.common.OutboundPipeline;
+import com.thingworx.sdk.common.OutboundQueue;
+import com.thingworx.sdk.common.OverflowPolicy;
+import com.thingworx.sdk.common.PayloadRecord;
+import com.thingworx.sdk.common.PayloadSchema;
+import com.thingworx.sdk.common.ServiceExecutor;
+import com.thingworx.sdk.common.ServiceLimits;
 import com.thingworx.types.BaseTypes;
 import com.thingworx.types.InfoTable;
 import com.thingworx.types.collections.AspectCollection;
@@ -23,7 +33,7 @@ import com.thingworx.types.collections.ValueCollection;
 import com.thingworx.types.constants.Aspects;
 import com.thingworx.types.constants.CommonPropertyNames;
 import com.thingworx.types.constants.DataChangeType;
-import com.thingworx.types.primitives.LocationPrimitive;
+import com.thingworx.types.primitives.InfoTablePrimitive;
 import com.thingworx.types.primitives.StringPrimitive;
 import com.thingworx.types.primitives.structs.Location;
 
@@ -37,6 +47,32 @@ public class SimpleThing extends VirtualThing {
 	private static final String PROPERTY = "Property1";
 	private static final String EVENT = "Event1";
 	private static final String SERVICE = "Service1";
+	private static final int OUTBOUND_EVENT_CAPACITY = 100;
+	private static final String STRING_INDEX = "StringIndex";
+	private static final String STRING_INDEX_EVENT = "StringIndexChanged";
+	// Run with -Dsimplething.stringIndex.snapshotInterval=<millis> to change how often the whole StringIndex is sent
+	private static final long STRING_INDEX_SNAPSHOT_MILLIS = Long.getLong("simplething.stringIndex.snapshotInterval", 60000L);
+	// A delta changing more than this share of the rows is sent as a snapshot
+	private static final double STRING_INDEX_MAX_CHANGE_RATIO = 0.5d;
+	// The rows of StringIndex, one of which changes with every scan
+	private static final int STRING_INDEX_ROWS = 10;
+
+	// The SimpleEvent payload is written by ordinal, its fields are checked once against SimpleDataShape
+	private static final PayloadSchema SIMPLE_SHAPE = PayloadSchema.of("SimpleDataShape", simpleDataShapeFields());
+	private static final PayloadSchema.IntegerField SIMPLE_COUNT = SIMPLE_SHAPE.integerField("Count");
+	private static final PayloadSchema.LocationField SIMPLE_LOCATION = SIMPLE_SHAPE.locationField("Location");
+	private static final PayloadSchema.StringField SIMPLE_NAME = SIMPLE_SHAPE.stringField("Name");
+
+	// Property values and events waiting to be pushed by the outbound pipeline
+	private final OutboundQueue outbound;
+	// Services invoked by the platform, each limited to a few concurrent invocations
+	private final ServiceExecutor services;
+	// The StringIndex rows sent so far, by the ID of the StringMap shape
+	private final InfoTableDeltaTracker stringIndex = new InfoTableDeltaTracker("ID", STRING_INDEX_SNAPSHOT_MILLIS,
+			STRING_INDEX_MAX_CHANGE_RATIO);
+	// The current StringIndex values, by ID
+	private final String[] stringIndexValues = new String[STRING_INDEX_ROWS];
+	private int scans;
 
 	/**
 	 * A custom constructor. We implement this so we can call initializeFromAnnotations,
@@ -53,6 +89,11 @@ public class SimpleThing extends VirtualThing {
 		super(name, description, client);
 		// Call the initializeFromAnnotations method to initialize all of the properties, services, and definitions created from annotations.
 		super.initializeFromAnnotations();
+		// Updates are pushed on the outbound pipeline's sender threads, never on the scan thread
+		this.outbound = OutboundPipeline.shared().register(this, OUTBOUND_EVENT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+		// Run with -Dservices.<ServiceName>=concurrency,queueLimit,timeoutMillis to change the limits of a service
+		this.services = new ServiceExecutor(name, ServiceLimits.fromProperty("services.default", new ServiceLimits(4, 16, 10000L)));
+		this.services.configure("StringMapService", ServiceLimits.fromProperty("services.StringMapService", new ServiceLimits(2, 8, 5000L)));
 
 		//Create the PROPERTY definition with name, description, and baseType
 		PropertyDefinition property1 = new PropertyDefinition(PROPERTY, "Description for Property1", BaseTypes.BOOLEAN);
@@ -79,7 +120,8 @@ public class SimpleThing extends VirtualThing {
 
 		//Create the EVENT definition with name and description
 		EventDefinition event1 = new EventDefinition(EVENT, "Description for Event1");
-		//Set the EVENT data shape
+		//Define the EVENT data shape as declared in the entity export, and set it on the EVENT
+		super.defineDataShapeDefinition("SimpleDataShape", simpleDataShapeFields());
 		event1.setDataShapeName("SimpleDataShape");
 		//Set remote access
 		event1.setLocalOnly(false);
@@ -106,6 +148,26 @@ public class SimpleThing extends VirtualThing {
         infoFields.addFieldDefinition(new FieldDefinition("Value", BaseTypes.STRING));
         // Add the DataShapeDefinition to the VirtualThing
 		super.defineDataShapeDefinition("StringMap", infoFields);
+
+		// Changes to StringIndex are sent as the rows upserted and deleted, see setStringIndex
+		FieldDefinitionCollection changeFields = new FieldDefinitionCollection();
+		changeFields.addFieldDefinition(new FieldDefinition("Sequence", BaseTypes.NUMBER));
+		changeFields.addFieldDefinition(new FieldDefinition("Snapshot", BaseTypes.BOOLEAN));
+		changeFields.addFieldDefinition(new FieldDefinition("Upserted", BaseTypes.INFOTABLE));
+		changeFields.addFieldDefinition(new FieldDefinition("Deleted", BaseTypes.INFOTABLE));
+		super.defineDataShapeDefinition("InfoTableChange", changeFields);
+		EventDefinition indexChanged = new EventDefinition(STRING_INDEX_EVENT, "Rows of StringIndex changed since the previous change");
+		indexChanged.setDataShapeName("InfoTableChange");
+		indexChanged.setLocalOnly(false);
+		super.defineEvent(indexChanged);
+	}
+
+	private static FieldDefinitionCollection simpleDataShapeFields() {
+		FieldDefinitionCollection fields = new FieldDefinitionCollection();
+		fields.addFieldDefinition(new FieldDefinition("Count", BaseTypes.INTEGER));
+		fields.addFieldDefinition(new FieldDefinition("Location", BaseTypes.LOCATION));
+		fields.addFieldDefinition(new FieldDefinition("Name", BaseTypes.STRING));
+		return fields;
 	}
 
 	// Service Definition
@@ -117,6 +179,20 @@ public class SimpleThing extends VirtualThing {
 		return value;
 	}
 
+	/**
+	 * Called for every service the platform invokes on this thing. Runs the service within its limits,
+	 * so that a busy service is rejected at once instead of timing out in the SDK.
+	 */
+	@Override
+	public InfoTable processServiceRequest(final String serviceName, final ValueCollection parameters) throws Exception {
+		return services.invoke(serviceName, new Callable<InfoTable>() {
+			@Override
+			public InfoTable call() throws Exception {
+				return SimpleThing.super.processServiceRequest(serviceName, parameters);
+			}
+		});
+	}
+
 	//Service1 Definition
 	public String Service1(String name) throws Exception {
 		String result = "Hello " + name;
@@ -131,22 +207,86 @@ public class SimpleThing extends VirtualThing {
 	@Override
 	public void processScanRequest() {
 		try {
-			ValueCollection payload = new ValueCollection();
-			payload.SetIntegerValue("Count", 5);
-			payload.SetLocationValue("Location", new LocationPrimitive(new Location(50d, -100d, 10d)));
-			payload.SetStringValue("Name", "Latest");
+			PayloadRecord payload = SIMPLE_SHAPE.acquire();
+			payload.set(SIMPLE_COUNT, 5);
+			payload.set(SIMPLE_LOCATION, new Location(50d, -100d, 10d));
+			payload.set(SIMPLE_NAME, "Latest");
 
-			super.setProperty(PROPERTY, "Hello There");
-			super.queueEvent("SimpleEvent", new DateTime(), payload);
+			outbound.setProperty(PROPERTY, "Hello There");
+			outbound.queueEvent("SimpleEvent", new DateTime(), payload);
 
-			super.updateSubscribedProperties(1000);
-			super.updateSubscribedEvents(1000);
+			// Push the updates without waiting for the server
+			outbound.commit();
+
+			// Only the StringIndex row changed by this scan is sent
+			setStringIndex(nextStringIndex());
 		} catch (Exception e) {
-			// This will occur if we provide an unknown PROPERTY name.
+			// Failures to push, such as an unknown PROPERTY name, are logged by the outbound pipeline.
+			// This will occur if the payload could not be built or staging the event was interrupted.
 			LOG.error("Exception occured while updating properties.", e);
 		}
 	}
 
+	/**
+	 * Sets the StringIndex property, a StringMap table keyed by ID. Only the rows inserted, updated or
+	 * deleted since the previous call are sent, with a StringIndexChanged event whose subscriber applies
+	 * them to the property on the platform. The whole table is sent as the property value the first time,
+	 * after a reconnect, and at least once per snapshot interval; a StringIndexChanged event marks each
+	 * snapshot with its sequence number, and a subscriber that sees a gap in the sequence waits for the
+	 * next snapshot.
+	 *
+	 * The local value of StringIndex is kept current either way, without pushing it, so that reads of the
+	 * property on the platform return the whole table.
+	 *
+	 * @param table The whole current contents of StringIndex, which must not be modified afterwards.
+	 * @throws Exception If the local value could not be set, or interrupted while staging the change.
+	 */
+	public void setStringIndex(InfoTable table) throws Exception {
+		InfoTableDeltaTracker.Change change = stringIndex.update(table);
+		if (change.isEmpty()) {
+			return;
+		}
+
+		ValueCollection payload = new ValueCollection();
+		payload.SetNumberValue("Sequence", change.getSequence());
+		payload.SetBooleanValue("Snapshot", change.isSnapshot());
+		if (change.isSnapshot()) {
+			outbound.setProperty(STRING_INDEX, change.getTable());
+		} else {
+			payload.SetInfoTableValue("Upserted", change.getUpserted());
+			payload.SetInfoTableValue("Deleted", change.getDeleted());
+			// Sets the value without queueing it for the subscribed properties
+			getProperty(STRING_INDEX).setValue(new InfoTablePrimitive(change.getTable()));
+		}
+		if (!outbound.queueEvent(STRING_INDEX_EVENT, new DateTime(), payload)) {
+			// A change may have been dropped, so the platform cannot follow the next delta
+			stringIndex.reset();
+		}
+		outbound.commit();
+	}
+
+	// A new StringIndex table, with the row of this scan changed
+	private InfoTable nextStringIndex() {
+		stringIndexValues[scans % STRING_INDEX_ROWS] = "Updated by scan " + scans;
+		scans++;
+		InfoTable table = new InfoTable(getDataShapeDefinition("StringMap"));
+		for (int id = 0; id < STRING_INDEX_ROWS; id++) {
+			ValueCollection row = new ValueCollection();
+			row.SetIntegerValue("ID", id);
+			row.SetStringValue("Value", stringIndexValues[id] != null ? stringIndexValues[id] : "Initial");
+			table.addRow(row);
+		}
+		return table;
+	}
+
+	// Called when a connect or reconnect happens
+	@Override
+	public void synchronizeState() {
+		// The platform may have missed changes while disconnected, so send StringIndex whole next time
+		stringIndex.reset();
+		super.synchronizeState();
+	}
+
 	public String callService(String name) throws Exception{
 		ValueCollection payload = new ValueCollection();
 		payload.put("name", new StringPrimitive(name));
@@ -157,4 +297,8 @@ public class SimpleThing extends VirtualThing {
 	public String getProperty1() {
 		return getProperty(PROPERTY).getValue().getStringValue();
 	}
+
+	public ServiceExecutor getServiceExecutor() {
+		return services;
+	}
 }
@@ -6,6 +6,7 @@ import org.slf4j.LoggerFactory;
 import com.thingworx.communications.client.ClientConfigurator;
 import com.thingworx.communications.client.ConnectedThingClient;
 import com.thingworx.relationships.RelationshipTypes.ThingworxEntityTypes;
+import com.thingworx.sdk.common.PropertyReadCache;
 import com.thingworx.types.InfoTable;
 import com.thingworx.types.collections.ValueCollection;
 import com.thingworx.types.primitives.LocationPrimitive;
@@ -15,6 +16,9 @@ public class SimpleThingClient extends ConnectedThingClient {
 	private static final Logger LOG = LoggerFactory.getLogger(SimpleThingClient.class);
 	private static String ThingName = "SimpleThing_1";
 	private static String property = "count";
+	// Run with -Dsimplething.cache.time=<ms> to change how long read property values are reused
+	private static final long CACHE_TIME_MILLIS = Long.getLong("simplething.cache.time", 5000L);
+	private static final int CACHE_SIZE = 1000;
 
 	public SimpleThingClient(ClientConfigurator config) throws Exception {
 		super(config);
@@ -59,7 +63,11 @@ public class SimpleThingClient extends ConnectedThingClient {
 
 				// Request a property from a Thing on the Platform. Here we access the 'count'
 				// property of a Thing while NOT using binding.
-				InfoTable result = client.readProperty(ThingworxEntityTypes.Things, ThingName, property, 10000);
+				// Reads go through a cache, so code polling the same property only goes to the server
+				// once per cache time, the cacheTime aspect of the property on the Platform unless set
+				// with setCacheTime. Writes through the cache drop the cached value.
+				PropertyReadCache cache = new PropertyReadCache(client, CACHE_SIZE, CACHE_TIME_MILLIS);
+				InfoTable result = cache.read(ThingworxEntityTypes.Things, ThingName, property, 10000);
 
 				// Result is returned as an InfoTable, so we must extract the value. An InfoTable
 				// is a collection of one or more rows. A row can have multiple fields. Each 
@@ -70,7 +78,9 @@ public class SimpleThingClient extends ConnectedThingClient {
 				LOG.info("The count of the Thing {} is: {}", ThingName, count);
 
 				// We can also access the value as a Primitive. This will work for all primitive types.
-				int prim = (int) result.getFirstRow().getPrimitive(property).getValue();
+				// Reading it again within the cache time is served from the cache. The count property of
+				// SimpleThing_1 has a cacheTime of 0 in the entity export, so it is read from the Platform again.
+				int prim = (int) cache.read(ThingworxEntityTypes.Things, ThingName, property, 10000).getFirstRow().getPrimitive(property).getValue();
 
 				LOG.info("The count of the Thing {} is: {}. This is based on using the Primitive class.", ThingName, prim);
 
@@ -81,7 +91,7 @@ public class SimpleThingClient extends ConnectedThingClient {
 
 				// This will set the location property of the Thing to the GPS 
 				// coordinates of Boston, MA.
-				client.writeProperty(ThingworxEntityTypes.Things, ThingName, "location", new LocationPrimitive(location), 5000);
+				cache.write(ThingworxEntityTypes.Things, ThingName, "location", new LocationPrimitive(location), 5000);
 
 				LOG.info("Wrote to the property 'location' of Thing {}. value: {}", ThingName, location.toString());
 
@@ -92,7 +102,8 @@ public class SimpleThingClient extends ConnectedThingClient {
 				ValueCollection params = new ValueCollection();
 				params.SetStringValue("name", "SimpleThing_2");
 				params.SetStringValue("description", "A new Thing");
-				params.SetStringValue("thingTemplateName", "RemoteThing");
+				// The template binds the remote properties and the StringIndexChanged event of a SimpleThing
+				params.SetStringValue("thingTemplateName", "SimpleThingTemplate");
 
 				// Use the SimpleThing_1 Thing to create a new Thing on the Platform.
 				// This service's result type is NOTHING, so we can ignore the response.
@@ -132,6 +143,21 @@ public class SimpleThingClient extends ConnectedThingClient {
 				// the RemoteThing 'SimpleThing_2' is now connected and that it is ready to 
 				// receive requests.
 				client.bindThing(thing);
+
+				// Changes the Platform pushes to the bound Thing drop the values read from it through the cache
+				cache.subscribe(thing);
+
+				// Scan the Thing once, which pushes its properties, an event and the whole StringIndex
+				thing.processScanRequest();
+				try {
+					// Index has a cacheTime of 5 seconds in SimpleThingTemplate, so the second read is served from the cache
+					cache.read(ThingworxEntityTypes.Things, thing.getName(), "Index", 10000);
+					cache.read(ThingworxEntityTypes.Things, thing.getName(), "Index", 10000);
+				} catch (Exception e) {
+					LOG.warn("Could not read the Index property of {}, import the entity export first", thing.getName(), e);
+				}
+
+				LOG.info("Property reads: hit ratio {}, {} round trips avoided", cache.getHitRatio(), cache.getRoundTripsAvoided());
 			} else {
 				// Log this as a warning. In production the application could continue
 				// to execute, and the client would attempt to reconnect periodically.